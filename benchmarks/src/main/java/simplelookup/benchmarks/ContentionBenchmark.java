@@ -0,0 +1,103 @@
+package simplelookup.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import simplelookup.Lookup;
+import simplelookup.benchmarks.TypeHierarchy.Root;
+
+/**
+ * Throughput of a single Lookup shared between threads. Each thread writes
+ * to its own type, or with {@code sharedType} all threads write to the same
+ * type, and reads through a View on Root. The result shows how the registry
+ * scales with the thread count.
+ *
+ * Run with {@code -t} for a single thread count, or through
+ * {@link ThreadSweep} to cover several.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        /** Upper bound on the number of threads, one type is created for each. */
+        @Param({"64"})
+        public int maxThreads;
+
+        @Param({"1000"})
+        public int elements;
+
+        @Param({"4"})
+        public int depth;
+
+        @Param({"0", "4"})
+        public int listeners;
+
+        @Param({"false", "true"})
+        public boolean sharedType;
+
+        Lookup lookup;
+        List<Class<? extends Root>> types;
+        Lookup.View<Root> root;
+        final AtomicInteger threads = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setup(Blackhole bh) {
+            types = TypeHierarchy.generate(maxThreads, depth);
+            lookup = new Lookup();
+            Fixtures.fill(lookup, types, Fixtures.populate(types, elements));
+            Fixtures.listen(lookup, listeners, ListenerKind.DELTA, bh);
+            root = lookup.getView(Root.class);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PerThread {
+        Lookup.View<Root> view;
+        Root item;
+
+        @Setup(Level.Trial)
+        @SuppressWarnings("unchecked")
+        public void setup(Shared shared) {
+            int index = shared.sharedType ? 0 : shared.threads.getAndIncrement() % shared.types.size();
+            Class<Root> type = (Class<Root>) shared.types.get(index);
+            view = shared.lookup.getView(type);
+            item = TypeHierarchy.create(type);
+        }
+    }
+
+    @Benchmark
+    public void addRemove(PerThread thread) {
+        thread.view.add(thread.item);
+        thread.view.remove(thread.item);
+    }
+
+    @Benchmark
+    public int leafSize(PerThread thread) {
+        return thread.view.size();
+    }
+
+    @Benchmark
+    public int rootSize(Shared shared) {
+        return shared.root.size();
+    }
+}
@@ -0,0 +1,82 @@
+package simplelookup.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import simplelookup.Lookup;
+import simplelookup.benchmarks.TypeHierarchy.Root;
+import simplelookup.listener.LookupBasicListener;
+import simplelookup.listener.LookupDeltaListener;
+import simplelookup.listener.LookupListener;
+
+/**
+ * Shared set up for the benchmark states.
+ */
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    /**
+     * Creates {@code elements} instances spread evenly across the given types.
+     * The instances for type {@code ii} are at {@code result.get(ii)}.
+     */
+    static List<List<Root>> populate(List<Class<? extends Root>> types, int elements) {
+        List<List<Root>> r = new ArrayList<List<Root>>(types.size());
+        int perType = Math.max(1, elements / types.size());
+        for (Class<? extends Root> type : types) {
+            List<Root> instances = new ArrayList<Root>(perType);
+            for (int ii = 0; ii < perType; ii++) {
+                instances.add(TypeHierarchy.create(type));
+            }
+            r.add(instances);
+        }
+        return r;
+    }
+
+    /**
+     * Adds the instances to the Lookup under their own class.
+     */
+    @SuppressWarnings("unchecked")
+    static void fill(Lookup lookup, List<Class<? extends Root>> types, List<List<Root>> instances) {
+        for (int ii = 0; ii < types.size(); ii++) {
+            Lookup.View<Root> view = lookup.getView((Class<Root>) types.get(ii));
+            view.addAll(instances.get(ii));
+        }
+    }
+
+    /**
+     * Registers {@code count} listeners against Root, so every mutation in
+     * the Lookup has to fan out to all of them. Results are consumed by the
+     * Blackhole to keep the JIT honest.
+     */
+    static void listen(Lookup lookup, int count, ListenerKind kind, Blackhole bh) {
+        for (int ii = 0; ii < count; ii++) {
+            lookup.register(Root.class, listener(kind, bh));
+        }
+    }
+
+    static LookupListener<Root> listener(ListenerKind kind, final Blackhole bh) {
+        switch (kind) {
+            case BASIC:
+                return new LookupBasicListener<Root>() {
+                    public void resultChanged(Collection<Root> result) {
+                        bh.consume(result.size());
+                    }
+                };
+            case DELTA:
+                return new LookupDeltaListener<Root>() {
+                    public void resultAdded(Collection<Root> additions) {
+                        bh.consume(additions);
+                    }
+                    public void resultRemoved(Collection<Root> removals) {
+                        bh.consume(removals);
+                    }
+                };
+            default:
+                throw new IllegalArgumentException(kind.toString());
+        }
+    }
+}
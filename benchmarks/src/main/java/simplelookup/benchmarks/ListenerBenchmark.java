@@ -0,0 +1,72 @@
+package simplelookup.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import simplelookup.Lookup;
+import simplelookup.benchmarks.TypeHierarchy.Root;
+
+/**
+ * Listener fan-out: the cost of a single add/remove pair as the number of
+ * listeners registered on the hierarchy grows. Listeners are spread between
+ * Root and the stored type so that resolution has to look at every level.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ListenerBenchmark {
+    @Param({"1", "16", "128"})
+    public int listeners;
+
+    @Param({"1", "8"})
+    public int depth;
+
+    @Param({"DELTA", "BASIC"})
+    public ListenerKind kind;
+
+    @Param({"100", "10000"})
+    public int elements;
+
+    private Lookup.View<Root> view;
+    private Root item;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup(Blackhole bh) {
+        List<Class<? extends Root>> types = TypeHierarchy.generate(1, depth);
+        Class<Root> type = (Class<Root>) types.get(0);
+        Lookup lookup = new Lookup();
+        Fixtures.fill(lookup, types, Fixtures.populate(types, elements));
+
+        int onRoot = listeners / 2;
+        Fixtures.listen(lookup, onRoot, kind, bh);
+        for (int ii = onRoot; ii < listeners; ii++) {
+            lookup.register(type, Fixtures.listener(kind, bh));
+        }
+        view = lookup.getView(type);
+        item = TypeHierarchy.create(type);
+    }
+
+    @Benchmark
+    public void addRemove() {
+        view.add(item);
+        view.remove(item);
+    }
+}
@@ -0,0 +1,11 @@
+package simplelookup.benchmarks;
+
+/**
+ * The kind of listener registered against the Lookup under test.
+ */
+public enum ListenerKind {
+    /** Receives the full contents on every change. */
+    BASIC,
+    /** Receives only the added or removed items. */
+    DELTA
+}
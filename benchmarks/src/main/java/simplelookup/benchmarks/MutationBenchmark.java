@@ -0,0 +1,116 @@
+package simplelookup.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import simplelookup.Lookup;
+import simplelookup.benchmarks.TypeHierarchy.Root;
+
+/**
+ * Mutation cost of a View: add, remove, addAll, removeAll and replaceAllWith
+ * against a Lookup that already holds {@code elements} items spread over
+ * {@code classes} types.
+ *
+ * Every benchmark leaves the Lookup as it found it, so the populated size
+ * stays constant throughout the run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MutationBenchmark {
+    @Param({"100", "10000"})
+    public int elements;
+
+    @Param({"1", "16", "256"})
+    public int classes;
+
+    @Param({"1", "4", "8"})
+    public int depth;
+
+    @Param({"0", "4"})
+    public int listeners;
+
+    @Param({"DELTA", "BASIC"})
+    public ListenerKind kind;
+
+    /** Number of items moved by the bulk operations. */
+    @Param({"16"})
+    public int batch;
+
+    private Lookup lookup;
+    private List<Lookup.View<Root>> views;
+    private List<List<Root>> contents;
+    private List<List<Root>> extras;
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup(Blackhole bh) {
+        List<Class<? extends Root>> types = TypeHierarchy.generate(classes, depth);
+        lookup = new Lookup();
+        contents = Fixtures.populate(types, elements);
+        Fixtures.fill(lookup, types, contents);
+        Fixtures.listen(lookup, listeners, kind, bh);
+
+        views = new ArrayList<Lookup.View<Root>>(types.size());
+        extras = new ArrayList<List<Root>>(types.size());
+        for (Class<? extends Root> type : types) {
+            views.add(lookup.getView((Class<Root>) type));
+            List<Root> extra = new ArrayList<Root>(batch);
+            for (int ii = 0; ii < batch; ii++) {
+                extra.add(TypeHierarchy.create(type));
+            }
+            extras.add(extra);
+        }
+    }
+
+    private int nextType() {
+        int r = next;
+        next = (next + 1) % views.size();
+        return r;
+    }
+
+    @Benchmark
+    public void addRemove() {
+        int type = nextType();
+        Lookup.View<Root> view = views.get(type);
+        Root item = extras.get(type).get(0);
+        view.add(item);
+        view.remove(item);
+    }
+
+    @Benchmark
+    public void addAllRemoveAll() {
+        int type = nextType();
+        Lookup.View<Root> view = views.get(type);
+        List<Root> items = extras.get(type);
+        view.addAll(items);
+        view.removeAll(items);
+    }
+
+    @Benchmark
+    public void replaceAllWith() {
+        int type = nextType();
+        Lookup.View<Root> view = views.get(type);
+        view.replaceAllWith(extras.get(type));
+        view.replaceAllWith(contents.get(type));
+    }
+}
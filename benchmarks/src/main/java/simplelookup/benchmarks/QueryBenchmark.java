@@ -0,0 +1,85 @@
+package simplelookup.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simplelookup.Lookup;
+import simplelookup.benchmarks.TypeHierarchy.Root;
+
+/**
+ * Read cost of a View: list, first and size. Each is measured through a View
+ * on a single leaf type and through a View on Root, which spans every type
+ * in the Lookup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryBenchmark {
+    @Param({"100", "10000"})
+    public int elements;
+
+    @Param({"1", "16", "256"})
+    public int classes;
+
+    @Param({"1", "8"})
+    public int depth;
+
+    private Lookup.View<Root> leaf;
+    private Lookup.View<Root> root;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        List<Class<? extends Root>> types = TypeHierarchy.generate(classes, depth);
+        Lookup lookup = new Lookup();
+        Fixtures.fill(lookup, types, Fixtures.populate(types, elements));
+        leaf = lookup.getView((Class<Root>) types.get(types.size() - 1));
+        root = lookup.getView(Root.class);
+    }
+
+    @Benchmark
+    public Object leafList() {
+        return leaf.list();
+    }
+
+    @Benchmark
+    public Object leafFirst() {
+        return leaf.first();
+    }
+
+    @Benchmark
+    public int leafSize() {
+        return leaf.size();
+    }
+
+    @Benchmark
+    public Object rootList() {
+        return root.list();
+    }
+
+    @Benchmark
+    public Object rootFirst() {
+        return root.first();
+    }
+
+    @Benchmark
+    public int rootSize() {
+        return root.size();
+    }
+}
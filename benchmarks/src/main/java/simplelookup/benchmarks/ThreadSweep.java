@@ -0,0 +1,27 @@
+package simplelookup.benchmarks;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks once per thread count, as JMH itself only
+ * accepts a single value for {@code -t}. Any other JMH command line options
+ * are passed through.
+ *
+ * <pre>
+ * java -Dthreads=1,2,4,8 -cp benchmarks.jar simplelookup.benchmarks.ThreadSweep ContentionBenchmark
+ * </pre>
+ */
+public class ThreadSweep {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        String threads = System.getProperty("threads", "1,2,4,8");
+        for (String t : threads.split(",")) {
+            new Runner(new OptionsBuilder()
+                    .parent(cli)
+                    .threads(Integer.parseInt(t.trim()))
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package simplelookup.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates any number of distinct, unrelated classes of a chosen hierarchy
+ * depth so the benchmarks can vary the number of types registered in a Lookup
+ * without hand writing hundreds of classes.
+ *
+ * Each generated type is a fresh copy of one of the Level classes below,
+ * defined by its own class loader. Every copy extends the shared {@link Root}
+ * so a single View on Root spans all of them.
+ */
+public final class TypeHierarchy {
+    public static final int MAX_DEPTH = 8;
+
+    private TypeHierarchy() {
+    }
+
+    /**
+     * Common super type of every generated class.
+     */
+    public static abstract class Root {
+    }
+
+    public static class Level1 extends Root {}
+    public static class Level2 extends Level1 {}
+    public static class Level3 extends Level2 {}
+    public static class Level4 extends Level3 {}
+    public static class Level5 extends Level4 {}
+    public static class Level6 extends Level5 {}
+    public static class Level7 extends Level6 {}
+    public static class Level8 extends Level7 {}
+
+    /**
+     * @param count Number of distinct classes to generate.
+     * @param depth Number of superclass steps between each class and Root,
+     * between 1 and {@link #MAX_DEPTH}.
+     * @return Distinct classes, none of which are assignable to each other.
+     */
+    public static List<Class<? extends Root>> generate(int count, int depth) {
+        if (depth < 1 || depth > MAX_DEPTH) throw new IllegalArgumentException("depth");
+        List<Class<? extends Root>> r = new ArrayList<Class<? extends Root>>(count);
+        String name = TypeHierarchy.class.getName() + "$Level" + depth;
+        for (int ii = 0; ii < count; ii++) {
+            try {
+                r.add(new Isolated().loadClass(name).asSubclass(Root.class));
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * @return A new instance of the given generated class.
+     */
+    public static Root create(Class<? extends Root> type) {
+        try {
+            return type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Child first loader for the Level classes, everything else (including
+     * Root) comes from the parent.
+     */
+    private static class Isolated extends ClassLoader {
+        private static final String PREFIX = TypeHierarchy.class.getName() + "$Level";
+
+        Isolated() {
+            super(TypeHierarchy.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(PREFIX)) return super.loadClass(name, resolve);
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    c = define(name);
+                }
+                if (resolve) resolveClass(c);
+                return c;
+            }
+        }
+
+        private Class<?> define(String name) throws ClassNotFoundException {
+            String resource = name.replace('.', '/') + ".class";
+            try (InputStream in = getParent().getResourceAsStream(resource)) {
+                if (in == null) throw new ClassNotFoundException(name);
+                byte[] bytes = in.readAllBytes();
+                return defineClass(name, bytes, 0, bytes.length);
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+}
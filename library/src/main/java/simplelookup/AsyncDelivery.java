@@ -0,0 +1,234 @@
+package simplelookup;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import simplelookup.listener.LookupListener;
+
+/**
+ * Configures a Lookup to notify its listeners asynchronously. Mutations only
+ * queue the change for each listener and return, the listener callbacks are
+ * run later on the Executor.
+ *
+ * Each listener has its own bounded queue and is notified by at most one
+ * thread at a time, so a listener still sees the changes in the order they
+ * were made. When a listener's queue is full the {@link Backpressure} policy
+ * decides what happens to the next change.
+ */
+public final class AsyncDelivery {
+    /**
+     * What to do with a change for a listener whose queue is full.
+     */
+    public enum Backpressure {
+        /**
+         * The mutating thread waits until the listener has caught up. The
+         * change is queued while the Store lock is held, and the wait
+         * happens once it has been released, so a listener may still query
+         * the Lookup. A listener which mutates the Lookup from its callback
+         * may deadlock with this policy.
+         */
+        BLOCK,
+        /**
+         * The oldest queued change is discarded to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * The change is merged into the newest queued change. Delta listeners
+         * receive the combined additions and removals, basic listeners the
+         * latest contents.
+         */
+        COALESCE
+    }
+
+    // Maximum number of changes delivered in one task, so one busy listener
+    // cannot hold on to an Executor thread indefinitely.
+    private static final int DRAIN_LIMIT = 64;
+
+    private final Executor executor;
+    private final int capacity;
+    private final Backpressure backpressure;
+    private final Map<LookupListener, Mailbox> mailboxes = new ConcurrentHashMap<LookupListener, Mailbox>();
+    // Mailboxes this thread has filled past capacity with BLOCK, waited on
+    // once it no longer holds the Store lock.
+    private final ThreadLocal<List<Mailbox>> overfull = new ThreadLocal<List<Mailbox>>() {
+        @Override
+        protected List<Mailbox> initialValue() {
+            return new ArrayList<Mailbox>(1);
+        }
+    };
+
+    /**
+     * Delivers on virtual threads where the runtime supports them, otherwise
+     * on a pool of daemon threads, with a queue of 1024 changes per listener
+     * and {@link Backpressure#BLOCK}.
+     */
+    public AsyncDelivery() {
+        this(defaultExecutor(), 1024, Backpressure.BLOCK);
+    }
+
+    /**
+     * @param executor Runs the listener callbacks. May not be null.
+     * @param capacity Maximum number of changes queued for each listener.
+     * Must be greater than zero.
+     * @param backpressure Policy applied when a listener's queue is full. May
+     * not be null.
+     */
+    public AsyncDelivery(Executor executor, int capacity, Backpressure backpressure) {
+        if (executor == null) throw new IllegalArgumentException("executor");
+        if (capacity < 1) throw new IllegalArgumentException("capacity");
+        if (backpressure == null) throw new IllegalArgumentException("backpressure");
+        this.executor = executor;
+        this.capacity = capacity;
+        this.backpressure = backpressure;
+    }
+
+    /**
+     * Queues the change for each of the listeners.
+     */
+    void deliver(LookupListener[] listeners, Event event) {
+        for (LookupListener l : listeners) {
+            Mailbox mailbox = mailboxes.get(l);
+            if (mailbox == null) {
+                Mailbox created = new Mailbox(l);
+                mailbox = mailboxes.putIfAbsent(l, created);
+                if (mailbox == null) mailbox = created;
+            }
+            mailbox.offer(event);
+        }
+    }
+
+    /**
+     * Waits until each listener queue this thread filled past its capacity
+     * has room again. Must not be called with a Store lock held, as the
+     * listener may need it to query the Lookup.
+     */
+    void awaitCapacity() {
+        List<Mailbox> full = overfull.get();
+        if (full.isEmpty()) return;
+        List<Mailbox> waiting = new ArrayList<Mailbox>(full);
+        full.clear();
+        for (Mailbox mailbox : waiting) {
+            mailbox.awaitCapacity();
+        }
+    }
+
+    /**
+     * Forgets the listener queues this thread filled past their capacity,
+     * without waiting. Used when a query adds the items of providers, as
+     * the query may itself be running in a listener.
+     */
+    void skipCapacity() {
+        overfull.get().clear();
+    }
+
+    /**
+     * Discards any queued changes for a listener which is no longer
+     * registered.
+     */
+    void removed(LookupListener listener) {
+        Mailbox mailbox = mailboxes.remove(listener);
+        if (mailbox != null) mailbox.discard();
+    }
+
+    /**
+     * The queue of changes for a single listener. The mailbox is scheduled
+     * on the Executor while it has changes to deliver.
+     */
+    private class Mailbox implements Runnable {
+        private final LookupListener listener;
+        // Guarded by this
+        private final ArrayDeque<Event> queue = new ArrayDeque<Event>();
+        private boolean scheduled;
+
+        Mailbox(LookupListener listener) {
+            this.listener = listener;
+        }
+
+        void offer(Event event) {
+            synchronized (this) {
+                if (queue.size() >= capacity) {
+                    switch (backpressure) {
+                        case BLOCK:
+                            // Queued over capacity for now, the caller
+                            // waits once it has released the Store lock.
+                            queue.add(event);
+                            overfull.get().add(this);
+                            break;
+                        case DROP_OLDEST:
+                            queue.poll();
+                            queue.add(event);
+                            break;
+                        case COALESCE:
+                            queue.add(queue.pollLast().merge(event));
+                            break;
+                    }
+                } else {
+                    queue.add(event);
+                }
+                if (scheduled) return;
+                scheduled = true;
+            }
+            executor.execute(this);
+        }
+
+        synchronized void awaitCapacity() {
+            boolean interrupted = false;
+            while (queue.size() > capacity) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+
+        synchronized void discard() {
+            queue.clear();
+            notifyAll();
+        }
+
+        public void run() {
+            for (int ii = 0; ii < DRAIN_LIMIT; ii++) {
+                Event event;
+                synchronized (this) {
+                    event = queue.poll();
+                    if (event == null) {
+                        scheduled = false;
+                        return;
+                    }
+                    notifyAll();
+                }
+                // Any exception is reported, and delivery to this listener
+                // continues.
+                event.deliverSafely(listener);
+            }
+            // Let other mailboxes have a turn before continuing.
+            executor.execute(this);
+        }
+    }
+
+    static Executor defaultExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // Virtual threads are not available on this runtime.
+        }
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "lookup-delivery-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+}
@@ -0,0 +1,191 @@
+package simplelookup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A group of changes to the Lookup, across any number of classes, which are
+ * applied together when the Batch is committed.
+ *
+ * Nothing is changed until {@link #commit()}. The changes are then applied
+ * atomically: queries see either none or all of them. Each interested
+ * listener is notified exactly once for the whole Batch, with the combined
+ * additions and removals. An item which is added and later removed within the
+ * same Batch is not reported at all.
+ *
+ * A Batch is not thread safe and may only be committed once.
+ */
+public final class Batch {
+    private final Lookup lookup;
+    private final List<Op> ops = new ArrayList<Op>();
+    private boolean committed;
+
+    Batch(Lookup lookup) {
+        this.lookup = lookup;
+    }
+
+    /**
+     * Adds an item to the Lookup under the given class.
+     */
+    public <T> Batch add(Class<T> c, T t) {
+        return record(c, Op.ADD, Collections.singletonList(t));
+    }
+
+    /**
+     * Removes an item from the Lookup under the given class.
+     */
+    public <T> Batch remove(Class<T> c, T t) {
+        return record(c, Op.REMOVE, Collections.singletonList(t));
+    }
+
+    /**
+     * Adds each of the items to the Lookup under the given class.
+     */
+    public <T> Batch addAll(Class<T> c, Collection<T> list) {
+        return record(c, Op.ADD, new ArrayList<T>(list));
+    }
+
+    /**
+     * Removes each of the items from the Lookup under the given class.
+     */
+    public <T> Batch removeAll(Class<T> c, Collection<T> list) {
+        return record(c, Op.REMOVE, new ArrayList<T>(list));
+    }
+
+    /**
+     * Replaces the contents of the given class with a single item.
+     */
+    public <T> Batch replaceAllWith(Class<T> c, T t) {
+        return record(c, Op.REPLACE, Collections.singletonList(t));
+    }
+
+    /**
+     * Replaces the contents of the given class with the items.
+     */
+    public <T> Batch replaceAllWith(Class<T> c, Collection<T> list) {
+        return record(c, Op.REPLACE, new ArrayList<T>(list));
+    }
+
+    /**
+     * Applies every change in this Batch to the Lookup and notifies
+     * listeners.
+     *
+     * @throws IllegalStateException If the Batch has already been committed.
+     */
+    public void commit() {
+        if (committed) throw new IllegalStateException("Batch already committed");
+        committed = true;
+        lookup.commit(ops);
+    }
+
+    private Batch record(Class c, int kind, List items) {
+        if (c == null) throw new IllegalArgumentException("class");
+        if (committed) throw new IllegalStateException("Batch already committed");
+        ops.add(new Op(c, kind, items));
+        return this;
+    }
+
+    /**
+     * A single recorded change.
+     */
+    static final class Op {
+        static final int ADD = 0;
+        static final int REMOVE = 1;
+        static final int REPLACE = 2;
+
+        final Class type;
+        final int kind;
+        final List items;
+
+        Op(Class type, int kind, List items) {
+            this.type = type;
+            this.kind = kind;
+            this.items = items;
+        }
+    }
+
+    /**
+     * Accumulates the net change to one Store while a Batch is applied. An
+     * addition followed by a removal of an equal item cancels out.
+     */
+    static final class Delta<T> {
+        final Store<T> store;
+        // Change in size of the Store, once applied
+        int sizeDelta;
+        private final List<T> removals = new ArrayList<T>();
+        private final List<T> additions = new ArrayList<T>();
+        // Additions not yet cancelled, and the number cancelled, per item
+        private final Map<T, Integer> pending = new HashMap<T, Integer>();
+        private final Map<T, Integer> cancelled = new HashMap<T, Integer>();
+
+        Delta(Store<T> store) {
+            this.store = store;
+        }
+
+        void added(T t) {
+            additions.add(t);
+            increment(pending, t);
+        }
+
+        void removed(T t) {
+            if (decrement(pending, t)) {
+                increment(cancelled, t);
+            } else {
+                removals.add(t);
+            }
+        }
+
+        /**
+         * @return A Delta holding the changes of both this and the other,
+         * used to update a ResultHandle that both contribute to.
+         */
+        Delta<T> combine(Delta<T> other) {
+            Delta<T> r = new Delta<T>(store);
+            r.removals.addAll(removals());
+            r.removals.addAll(other.removals());
+            r.additions.addAll(additions());
+            r.additions.addAll(other.additions());
+            r.sizeDelta = sizeDelta + other.sizeDelta;
+            return r;
+        }
+
+        boolean isEmpty() {
+            return removals.isEmpty() && pending.isEmpty();
+        }
+
+        List<T> removals() {
+            return Collections.unmodifiableList(removals);
+        }
+
+        List<T> additions() {
+            if (cancelled.isEmpty()) return Collections.unmodifiableList(additions);
+            // Counted down on a copy, so every call returns the same items.
+            Map<T, Integer> remaining = new HashMap<T, Integer>(cancelled);
+            List<T> r = new ArrayList<T>(additions.size());
+            for (T t : additions) {
+                if (!decrement(remaining, t)) r.add(t);
+            }
+            return Collections.unmodifiableList(r);
+        }
+
+        private static <T> void increment(Map<T, Integer> counts, T t) {
+            Integer count = counts.get(t);
+            counts.put(t, count == null ? 1 : count + 1);
+        }
+
+        private static <T> boolean decrement(Map<T, Integer> counts, T t) {
+            Integer count = counts.get(t);
+            if (count == null) return false;
+            if (count == 1) {
+                counts.remove(t);
+            } else {
+                counts.put(t, count - 1);
+            }
+            return true;
+        }
+    }
+}
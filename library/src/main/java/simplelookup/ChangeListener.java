@@ -0,0 +1,17 @@
+package simplelookup;
+
+import java.util.List;
+
+import simplelookup.listener.LookupListener;
+
+/**
+ * Internal listener which receives the removals and additions of each change
+ * together, rather than as the separate callbacks of a delta listener.
+ */
+interface ChangeListener<T> extends LookupListener<T> {
+    /**
+     * @param removals Items removed, may be empty.
+     * @param additions Items added, may be empty.
+     */
+    void changed(List<T> removals, List<T> additions);
+}
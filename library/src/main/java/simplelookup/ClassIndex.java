@@ -0,0 +1,50 @@
+package simplelookup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Index from a queried class to every stored class which is assignable to it.
+ *
+ * The index is maintained incrementally: when a class is first stored in the
+ * Lookup, it is recorded against each of its super classes and interfaces. A
+ * View query then reads the matching stored classes straight out of the index
+ * rather than testing every stored class with isAssignableFrom.
+ *
+ * Reads are lock free. New stored classes are rare, so each entry is copied
+ * on write.
+ */
+class ClassIndex {
+    private final Map<Class, List<Class>> index = new ConcurrentHashMap<Class, List<Class>>();
+
+    /**
+     * Records a newly stored class against every type it may be viewed as.
+     *
+     * @param stored Class which has just been added to the Lookup. Must only
+     * be added once.
+     */
+    synchronized void add(Class stored) {
+        for (Class type : TypeClosure.of(stored)) {
+            List<Class> matches = index.get(type);
+            if (matches == null) {
+                matches = new CopyOnWriteArrayList<Class>();
+                index.put(type, matches);
+            }
+            matches.add(stored);
+        }
+    }
+
+    /**
+     * @param query Class of a View.
+     * @return Every stored class assignable to the query class, in the order
+     * they were first stored. This list must not be modified.
+     */
+    List<Class> get(Class query) {
+        List<Class> matches = index.get(query);
+        if (matches == null) return Collections.emptyList();
+        return matches;
+    }
+}
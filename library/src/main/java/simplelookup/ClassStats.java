@@ -0,0 +1,178 @@
+package simplelookup;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import simplelookup.listener.LookupListener;
+
+/**
+ * Statistics for a single class in a Lookup, collected while its
+ * {@link LookupStats} are enabled.
+ *
+ * Mutations and notifications are counted against the class that was
+ * changed. Materializations are counted against the class of the View whose
+ * list was built. The element, distinct and listener counts are read from the
+ * Lookup when asked for.
+ */
+public final class ClassStats implements ClassStatsMXBean {
+    private final Lookup lookup;
+    private final Class type;
+    private final LongAdder adds = new LongAdder();
+    private final LongAdder removes = new LongAdder();
+    private final Histogram notificationLatency = new Histogram();
+    private final Histogram listenerTime = new Histogram();
+    private final Histogram materialized = new Histogram();
+    // Guarded by this
+    private String slowestListener;
+    private long slowestNanos = -1;
+
+    ClassStats(Lookup lookup, Class type) {
+        this.lookup = lookup;
+        this.type = type;
+    }
+
+    void mutated(int removed, int added) {
+        if (removed > 0) removes.add(removed);
+        if (added > 0) adds.add(added);
+    }
+
+    void delivered(LookupListener listener, long created, long start, long end) {
+        long nanos = end - start;
+        listenerTime.record(nanos);
+        notificationLatency.record(end - created);
+        synchronized (this) {
+            if (nanos > slowestNanos) {
+                slowestNanos = nanos;
+                // Only the name is kept, so the listener can still be collected.
+                slowestListener = listener.getClass().getName();
+            }
+        }
+    }
+
+    void materialized(int size) {
+        materialized.record(size);
+    }
+
+    /**
+     * @return The class these statistics are for.
+     */
+    public Class type() {
+        return type;
+    }
+
+    /**
+     * @return Time from each change being made to each listener returning
+     * from its notification, including any time queued for asynchronous
+     * delivery.
+     */
+    public Histogram notificationLatency() {
+        return notificationLatency;
+    }
+
+    /**
+     * @return Time spent in each listener callback.
+     */
+    public Histogram listenerTime() {
+        return listenerTime;
+    }
+
+    /**
+     * @return Sizes of the lists built for Views of this class.
+     */
+    public Histogram materializedSizes() {
+        return materialized;
+    }
+
+    public String getType() {
+        return type.getName();
+    }
+
+    /**
+     * @return Number of items added to this class.
+     */
+    public long getAdds() {
+        return adds.sum();
+    }
+
+    /**
+     * @return Number of items removed from this class.
+     */
+    public long getRemoves() {
+        return removes.sum();
+    }
+
+    /**
+     * @return Number of items currently stored under this class.
+     */
+    public int getElements() {
+        Store store = lookup.store(type);
+        if (store == null) return 0;
+        synchronized (store) {
+            return store.queue.size();
+        }
+    }
+
+    /**
+     * @return Number of distinct items currently stored under this class.
+     */
+    public int getDistinct() {
+        Store store = lookup.store(type);
+        if (store == null) return 0;
+        synchronized (store) {
+            return store.queue.distinct();
+        }
+    }
+
+    /**
+     * @return Number of listeners notified of changes to this class.
+     */
+    public int getListeners() {
+        return lookup.listenerCount(type);
+    }
+
+    /**
+     * @return Number of listener callbacks made for changes to this class.
+     */
+    public long getNotifications() {
+        return listenerTime.count();
+    }
+
+    public double getNotificationLatencyMean() {
+        return notificationLatency.mean();
+    }
+
+    public long getNotificationLatency99() {
+        return notificationLatency.percentile(99);
+    }
+
+    public long getNotificationLatencyMax() {
+        return notificationLatency.max();
+    }
+
+    public double getListenerTimeMean() {
+        return listenerTime.mean();
+    }
+
+    public long getListenerTimeMax() {
+        return listenerTime.max();
+    }
+
+    /**
+     * @return Class name of the listener with the longest single callback, or
+     * null if no listener has been notified.
+     */
+    public synchronized String getSlowestListener() {
+        return slowestListener;
+    }
+
+    public long getMaterializations() {
+        return materialized.count();
+    }
+
+    public double getMaterializedSizeMean() {
+        return materialized.mean();
+    }
+
+    public long getMaterializedSizeMax() {
+        return materialized.max();
+    }
+}
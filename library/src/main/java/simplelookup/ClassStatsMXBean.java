@@ -0,0 +1,24 @@
+package simplelookup;
+
+/**
+ * The JMX view of the {@link ClassStats} for one class in a Lookup. Times are
+ * in nanoseconds.
+ */
+public interface ClassStatsMXBean {
+    String getType();
+    long getAdds();
+    long getRemoves();
+    int getElements();
+    int getDistinct();
+    int getListeners();
+    long getNotifications();
+    double getNotificationLatencyMean();
+    long getNotificationLatency99();
+    long getNotificationLatencyMax();
+    double getListenerTimeMean();
+    long getListenerTimeMax();
+    String getSlowestListener();
+    long getMaterializations();
+    double getMaterializedSizeMean();
+    long getMaterializedSizeMax();
+}
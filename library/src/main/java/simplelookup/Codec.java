@@ -0,0 +1,63 @@
+package simplelookup;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts the items of one class to and from bytes, for a
+ * {@link LookupSnapshot}. Null items are recorded by the snapshot itself, so
+ * a Codec is never given null.
+ *
+ * A Codec must read back exactly the bytes it wrote, as the items of a class
+ * are written one after another.
+ */
+public interface Codec<T> {
+    /**
+     * Writes a non null item.
+     */
+    void encode(T item, DataOutput out) throws IOException;
+
+    /**
+     * Reads an item written by {@link #encode(Object, DataOutput)}.
+     */
+    T decode(DataInput in) throws IOException;
+
+    /**
+     * Strings of any length, as UTF-8.
+     */
+    Codec<String> STRING = new Codec<String>() {
+        public void encode(String item, DataOutput out) throws IOException {
+            byte[] bytes = item.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        public String decode(DataInput in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    Codec<Integer> INTEGER = new Codec<Integer>() {
+        public void encode(Integer item, DataOutput out) throws IOException {
+            out.writeInt(item);
+        }
+
+        public Integer decode(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    Codec<Long> LONG = new Codec<Long>() {
+        public void encode(Long item, DataOutput out) throws IOException {
+            out.writeLong(item);
+        }
+
+        public Long decode(DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+}
@@ -0,0 +1,167 @@
+package simplelookup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import simplelookup.listener.LookupBasicListener;
+import simplelookup.listener.LookupDeltaListener;
+import simplelookup.listener.LookupListener;
+
+/**
+ * A single change to the Lookup as delivered to listeners: the items removed,
+ * the items added and the resulting contents of the changed class.
+ */
+final class Event<T> {
+    private final Store<T> store;
+    private final List<T> removals;
+    private final List<T> additions;
+    private final List<T> contents;
+    // Null unless the Lookup is collecting statistics
+    private final LookupStats stats;
+    // When the change was made, if collecting statistics
+    private final long created;
+
+    /**
+     * @param store Store which changed.
+     * @param removals Removed items, may not be modified after this call.
+     * @param additions Added items, may not be modified after this call.
+     * @param contents Contents of the Store after the change, or null to use
+     * the Store's snapshot at the time of delivery.
+     * @param stats Records each delivery, or null.
+     */
+    Event(Store<T> store, List<T> removals, List<T> additions, List<T> contents, LookupStats stats) {
+        this(store, removals, additions, contents, stats, stats == null ? 0 : System.nanoTime());
+    }
+
+    private Event(Store<T> store, List<T> removals, List<T> additions, List<T> contents, LookupStats stats, long created) {
+        this.store = store;
+        this.removals = removals;
+        this.additions = additions;
+        this.contents = contents;
+        this.stats = stats;
+        this.created = created;
+    }
+
+    /**
+     * Signals the given listener of this change. Nothing is delivered to a
+     * weakly registered listener which has been collected.
+     */
+    void deliverTo(LookupListener listener) {
+        listener = WeakListener.resolve(listener);
+        if (listener == null) return;
+        if (listener instanceof Lookup.Forwarder) {
+            // Each listener it forwards to is timed on its own.
+            ((Lookup.Forwarder) listener).forward(this);
+            return;
+        }
+        if (stats == null) {
+            deliver(listener);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            deliver(listener);
+        } finally {
+            stats.delivered(store.type, listener, created, start, System.nanoTime());
+        }
+    }
+
+    /**
+     * Signals the given listener of this change as {@link #deliverTo} does.
+     * Any exception from the listener is reported to the current thread's
+     * uncaught exception handler rather than thrown, so that it cannot stop
+     * other listeners being notified.
+     */
+    void deliverSafely(LookupListener listener) {
+        try {
+            deliverTo(listener);
+        } catch (RuntimeException e) {
+            Thread t = Thread.currentThread();
+            t.getUncaughtExceptionHandler().uncaughtException(t, e);
+        }
+    }
+
+    /**
+     * @return This change, with the contents of the Store captured now if
+     * they would otherwise be read at the time of delivery. The Store lock
+     * must be held.
+     */
+    Event<T> withContents() {
+        if (contents != null) return this;
+        return new Event<T>(store, removals, additions, store.snapshot(), stats, created);
+    }
+
+    private void deliver(LookupListener listener) {
+        if (listener instanceof LookupBasicListener) {
+            LookupBasicListener basic = (LookupBasicListener) listener;
+            basic.resultChanged(contents != null ? contents : store.snapshot());
+        } else if (listener instanceof LookupDeltaListener) {
+            LookupDeltaListener delta = (LookupDeltaListener) listener;
+            if (!removals.isEmpty()) {
+                delta.resultRemoved(removals);
+            }
+            if (!additions.isEmpty()) {
+                delta.resultAdded(additions);
+            }
+        } else if (listener instanceof ChangeListener) {
+            ((ChangeListener) listener).changed(removals, additions);
+        } else {
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Combines this change with a later one, so that delivering the result is
+     * equivalent to delivering both. Items added by this change and removed by
+     * the later one cancel out.
+     *
+     * @return A new Event, neither this nor the later Event are modified.
+     */
+    Event<T> merge(Event<T> later) {
+        List<T> laterRemovals = new ArrayList<T>(later.removals);
+        List<T> merged = new ArrayList<T>(additions);
+        cancel(merged, laterRemovals);
+        List<T> allRemovals = new ArrayList<T>(removals);
+        allRemovals.addAll(laterRemovals);
+        merged.addAll(later.additions);
+        // Latency is measured from the earlier change.
+        return new Event<T>(later.store,
+                Collections.unmodifiableList(allRemovals),
+                Collections.unmodifiableList(merged),
+                later.contents, later.stats, created);
+    }
+
+    // Removes each item in removals from additions, and vice versa, once per
+    // occurrence.
+    static <T> void cancel(List<T> additions, List<T> removals) {
+        Map<T, Integer> added = new HashMap<T, Integer>();
+        for (T t : additions) {
+            Integer count = added.get(t);
+            added.put(t, count == null ? 1 : count + 1);
+        }
+        Map<T, Integer> cancelled = new HashMap<T, Integer>();
+        for (Iterator<T> it = removals.iterator(); it.hasNext();) {
+            T t = it.next();
+            Integer count = added.get(t);
+            if (count != null && count > 0) {
+                added.put(t, count - 1);
+                Integer c = cancelled.get(t);
+                cancelled.put(t, c == null ? 1 : c + 1);
+                it.remove();
+            }
+        }
+        if (cancelled.isEmpty()) return;
+        for (Iterator<T> it = additions.iterator(); it.hasNext();) {
+            T t = it.next();
+            Integer count = cancelled.get(t);
+            if (count != null && count > 0) {
+                cancelled.put(t, count - 1);
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package simplelookup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+
+import simplelookup.listener.LookupListener;
+
+/**
+ * The items of a View which match a Predicate, obtained from
+ * {@link Lookup.View#where(Predicate)}. The matching items are kept up to
+ * date as the Lookup changes, by testing only the items added or removed, so
+ * reading them does not filter the whole View.
+ *
+ * Listeners registered with a FilteredView are only notified of changes to
+ * matching items. In a Lookup with {@link AsyncDelivery} the FilteredView is
+ * itself updated asynchronously, and so may lag behind the View.
+ *
+ * A FilteredView stays registered with its Lookup until it is closed.
+ */
+public final class FilteredView<T> implements AutoCloseable {
+    private final Predicate<? super T> predicate;
+    // Holds the matching items, and is the lock for this FilteredView
+    private final Store<T> store;
+    private final List<LookupListener<T>> listeners = new CopyOnWriteArrayList<LookupListener<T>>();
+    private final Registration registration;
+    // Changes which arrived before the initial contents were loaded, guarded
+    // by store
+    private List<List<T>> pending = new LinkedList<List<T>>();
+
+    FilteredView(Lookup lookup, Class<T> type, Predicate<? super T> predicate) {
+        this.predicate = predicate;
+        this.store = new Store<T>(type, -1);
+        List<T> contents = new ArrayList<T>();
+        registration = lookup.subscribe(type, new ChangeListener<T>() {
+            public void changed(List<T> removals, List<T> additions) {
+                update(removals, additions);
+            }
+        }, contents);
+        synchronized (store) {
+            for (T t : contents) {
+                if (predicate.test(t)) store.queue.add(t);
+            }
+            List<List<T>> replay = pending;
+            pending = null;
+            for (int ii = 0; ii < replay.size(); ii += 2) {
+                update(replay.get(ii), replay.get(ii + 1));
+            }
+            store.changed();
+        }
+    }
+
+    private void update(List<T> removals, List<T> additions) {
+        synchronized (store) {
+            if (pending != null) {
+                pending.add(removals);
+                pending.add(additions);
+                return;
+            }
+            List<T> removed = Collections.emptyList();
+            for (T t : removals) {
+                if (predicate.test(t) && store.queue.remove(t)) {
+                    if (removed.isEmpty()) removed = new ArrayList<T>();
+                    removed.add(t);
+                }
+            }
+            List<T> added = Collections.emptyList();
+            for (T t : additions) {
+                if (predicate.test(t)) {
+                    store.queue.add(t);
+                    if (added.isEmpty()) added = new ArrayList<T>();
+                    added.add(t);
+                }
+            }
+            if (removed.isEmpty() && added.isEmpty()) return;
+            store.changed();
+            if (listeners.isEmpty()) return;
+            Event<T> event = new Event<T>(store,
+                    Collections.unmodifiableList(removed),
+                    Collections.unmodifiableList(added), null, null);
+            for (LookupListener<T> l : listeners) {
+                event.deliverSafely(l);
+            }
+        }
+    }
+
+    /**
+     * Register interest in changes to the matching items. The listener is
+     * notified while this FilteredView is locked, so sees the changes in the
+     * order they were made.
+     *
+     * @param listener Listener which will receive updates. May not be null.
+     */
+    public void register(LookupListener<T> listener) {
+        if (listener == null) throw new IllegalArgumentException("listener");
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes one registration of the given listener.
+     *
+     * @param listener Listener to remove. May not be null.
+     *
+     * @throws IllegalArgumentException If the Listener has not been registered.
+     */
+    public void deregister(LookupListener<T> listener) {
+        if (listener == null) throw new IllegalArgumentException("listener");
+        if (!listeners.remove(listener)) {
+            throw new IllegalArgumentException("Listener is not registered");
+        }
+    }
+
+    /**
+     * @return Unmodifiable snapshot of the matching items.
+     */
+    public List<T> list() {
+        return store.snapshot();
+    }
+
+    /**
+     * @return A matching item, or null if there are none.
+     */
+    public T first() {
+        return store.first();
+    }
+
+    /**
+     * @return Number of matching items.
+     */
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * @return True if no items match.
+     */
+    public boolean isEmpty() {
+        return store.size() == 0;
+    }
+
+    /**
+     * Stops following the Lookup. The contents are no longer updated.
+     */
+    public void close() {
+        registration.close();
+    }
+}
@@ -0,0 +1,79 @@
+package simplelookup;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values, such as latencies in
+ * nanoseconds or list sizes. Values are counted in power of two buckets, so
+ * percentiles are accurate to within a factor of two while recording costs a
+ * few atomic increments.
+ */
+public final class Histogram {
+    // Bucket 0 holds zero, bucket n holds values in [2^(n-1), 2^n).
+    private final AtomicLongArray buckets = new AtomicLongArray(65);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram() {
+    }
+
+    void record(long value) {
+        if (value < 0) value = 0;
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+        count.increment();
+        sum.add(value);
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * @return Number of values recorded.
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * @return Mean of the values recorded, or zero if there are none.
+     */
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @return Largest value recorded, or zero if there are none.
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @param p Percentile, between 0 and 100.
+     *
+     * @return An upper bound on the given percentile of the values recorded,
+     * or zero if there are none.
+     */
+    public long percentile(double p) {
+        if (p < 0 || p > 100) throw new IllegalArgumentException("p");
+        long total = 0;
+        for (int ii = 0; ii < buckets.length(); ii++) {
+            total += buckets.get(ii);
+        }
+        long rank = (long) Math.ceil(total * p / 100);
+        long seen = 0;
+        for (int ii = 0; ii < buckets.length(); ii++) {
+            seen += buckets.get(ii);
+            if (seen >= rank && seen > 0) {
+                long bound = ii == 0 ? 0 : ii == 64 ? Long.MAX_VALUE : (1L << ii) - 1;
+                return Math.min(bound, max.get());
+            }
+        }
+        return 0;
+    }
+}
@@ -1,41 +1,85 @@
 package simplelookup;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
- * Fast Add/Remove, but slow List characteristics.
+ * Fast Add/Remove, and List proportional to the number of items held.
  *
- * This structure creates an Entry for each Object added. The structure supports
- * duplicates by linking Entries together under the same Object reference in the
- * map.
+ * This structure counts the occurrences of each Object added, which is how it
+ * supports duplicates. The distinct Objects and their counts are kept densely
+ * packed in parallel arrays, and found through an open addressing hash table
+ * of positions into those arrays. There is no Entry object and no boxed count
+ * per distinct Object.
+ *
+ * Adds increment the count for an Object. Removes decrement it, and once the
+ * count reaches zero the Object is evicted, with the last Object moved into
+ * its place. Listing therefore only ever visits live Objects.
  *
- * Adds are simply appended to the end of an Entry stack. Removes pop an Entry
- * off the top of the stack.
- * 
  * @author KylaBob
  */
 public class IndexedQueue<T> {
+    private static final int INITIAL_CAPACITY = 16;
+    // Stands in for a null key.
+    private static final Object NULL_KEY = new Object();
+
     private int total = 0;
-    private Map<T, Integer> map = new HashMap<T, Integer>();
-    
+    // Number of distinct Objects, which occupy the start of the dense arrays
+    private int distinct = 0;
+    private Object[] elements;
+    private int[] counts;
+    private int[] hashes;
+    // Position in the dense arrays plus one for each slot, zero when empty.
+    private int[] table;
+
+    public IndexedQueue() {
+        allocate(INITIAL_CAPACITY);
+    }
+
     public void add(T t) {
-        Integer count = map.get(t);
-        if (count != null) {
-            map.put(t, count+1);
-        } else {
-            map.put(t, 1);
+        Object key = mask(t);
+        int hash = hash(key);
+        int slot = slot(key, hash);
+        if (table[slot] == 0) {
+            if ((distinct + 1) * 4 > table.length * 3) {
+                rehash(table.length * 2);
+                slot = slot(key, hash);
+            }
+            elements[distinct] = key;
+            hashes[distinct] = hash;
+            counts[distinct] = 0;
+            table[slot] = ++distinct;
         }
+        counts[table[slot] - 1]++;
         total++;
     }
 
+    /**
+     * @return False if the Object is not held, in which case nothing is
+     * removed.
+     */
     public boolean remove(T t) {
-        Integer count = map.get(t);
-        if (count == null) return false;
-        map.put(t, count-1);
+        Object key = mask(t);
+        int slot = slot(key, hash(key));
+        int index = table[slot] - 1;
+        if (index < 0) return false;
         total--;
+        if (--counts[index] > 0) return true;
+
+        // Evict the Object, and move the last Object into the gap.
+        delete(slot);
+        int last = --distinct;
+        if (index != last) {
+            elements[index] = elements[last];
+            counts[index] = counts[last];
+            hashes[index] = hashes[last];
+            table[find(last)] = index + 1;
+        }
+        elements[last] = null;
+
+        if (table.length > INITIAL_CAPACITY && distinct * 8 < table.length) {
+            rehash(table.length / 2);
+        }
         return true;
     }
 
@@ -43,20 +87,155 @@ public class IndexedQueue<T> {
         return total;
     }
 
+    /**
+     * @return Number of distinct Objects held.
+     */
+    int distinct() {
+        return distinct;
+    }
+
+    /**
+     * @return The distinct Object at a position, from zero to
+     * {@link #distinct()}. This is the order of {@link #list()}, except in
+     * a {@link SortedQueue}.
+     */
+    T element(int index) {
+        return unmask(elements[index]);
+    }
+
+    /**
+     * @return Number of occurrences of the distinct Object at a position.
+     */
+    int count(int index) {
+        return counts[index];
+    }
+
     public List<T> list() {
-        List<T> r = new LinkedList<T>();
-        for (T t : map.keySet()) {
-            int count = map.get(t);
-            while (count > 0) {
+        List<T> r = new ArrayList<T>(total);
+        for (int ii = 0; ii < distinct; ii++) {
+            T t = unmask(elements[ii]);
+            for (int count = counts[ii]; count > 0; count--) {
                 r.add(t);
-                count--;
             }
         }
         return r;
     }
 
+    /**
+     * @return The Object which would be first in {@link #list()}, or null if
+     * there are none.
+     */
+    T first() {
+        return distinct == 0 ? null : IndexedQueue.<T>unmask(elements[0]);
+    }
+
+    /**
+     * @return True if the list holds the same Objects, in the same order, as
+     * would be returned by {@link #list()}.
+     */
+    boolean matches(List<T> list) {
+        if (list.size() != total) return false;
+        int ii = 0;
+        int count = 0;
+        for (T t : list) {
+            if (count == 0) count = counts[ii++];
+            if (t != unmask(elements[ii - 1])) return false;
+            count--;
+        }
+        return true;
+    }
+
     public void clear() {
-        map.clear();
+        allocate(INITIAL_CAPACITY);
+        distinct = 0;
         total = 0;
     }
-}
\ No newline at end of file
+
+    // Returns the slot holding the key, or the empty slot where it belongs.
+    private int slot(Object key, int hash) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (true) {
+            int index = table[slot] - 1;
+            if (index < 0) return slot;
+            if (hashes[index] == hash) {
+                Object k = elements[index];
+                if (k == key || k.equals(key)) return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Returns the slot holding the given position in the dense arrays.
+    private int find(int index) {
+        int mask = table.length - 1;
+        int slot = hashes[index] & mask;
+        while (table[slot] != index + 1) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Empties a slot, shifting back any later entries of the same probe run
+    // which could no longer be reached across the gap.
+    private void delete(int slot) {
+        int mask = table.length - 1;
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (table[next] == 0) break;
+            int ideal = hashes[table[next] - 1] & mask;
+            boolean reachable = hole <= next
+                    ? ideal > hole && ideal <= next
+                    : ideal > hole || ideal <= next;
+            if (!reachable) {
+                table[hole] = table[next];
+                hole = next;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    private void rehash(int capacity) {
+        Object[] oldElements = elements;
+        int[] oldCounts = counts;
+        int[] oldHashes = hashes;
+        allocate(capacity);
+        System.arraycopy(oldElements, 0, elements, 0, distinct);
+        System.arraycopy(oldCounts, 0, counts, 0, distinct);
+        System.arraycopy(oldHashes, 0, hashes, 0, distinct);
+        int mask = capacity - 1;
+        for (int ii = 0; ii < distinct; ii++) {
+            int slot = hashes[ii] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = ii + 1;
+        }
+    }
+
+    // The dense arrays only need to hold as many Objects as the table allows.
+    private void allocate(int capacity) {
+        int dense = capacity * 3 / 4;
+        elements = new Object[dense];
+        counts = new int[dense];
+        hashes = new int[dense];
+        table = new int[capacity];
+    }
+
+    private static int hash(Object key) {
+        // Spread the bits, as many hashCodes differ only in the high bits.
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static Object mask(Object t) {
+        return t == null ? NULL_KEY : t;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T unmask(Object key) {
+        return key == NULL_KEY ? null : (T) key;
+    }
+}
@@ -0,0 +1,218 @@
+package simplelookup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import simplelookup.listener.LookupListener;
+
+/**
+ * A hash index of the items in a View by a key derived from each item,
+ * obtained from {@link Lookup.View#indexBy(Function)}. The index is kept up
+ * to date as the Lookup changes, and finding the items for a key does not
+ * lock or search the View. Each key holds its items in a {@link Store}, so a
+ * change costs the same however many items share the key, and the snapshot
+ * for a key is only built when it is next read.
+ *
+ * The key of an item must not change while it is in the Lookup. In a Lookup
+ * with {@link AsyncDelivery} the index is itself updated asynchronously, and
+ * so may lag behind the View.
+ *
+ * A KeyIndex stays registered with its Lookup until it is closed.
+ */
+public final class KeyIndex<K, T> implements AutoCloseable {
+    // Stands in for a null key.
+    private static final Object NULL_KEY = new Object();
+
+    private final Class<T> type;
+    private final Function<? super T, ? extends K> keyOf;
+    // The items for each key, removed once it has none. Changed while
+    // holding this lock and the Store's.
+    private final Map<Object, Store<T>> entries = new ConcurrentHashMap<Object, Store<T>>();
+    private final Map<Object, List<LookupListener<T>>> listeners = new ConcurrentHashMap<Object, List<LookupListener<T>>>();
+    private final Registration registration;
+    // Changes which arrived before the initial contents were loaded, guarded
+    // by this
+    private List<List<T>> pending = new LinkedList<List<T>>();
+
+    KeyIndex(Lookup lookup, Class<T> type, Function<? super T, ? extends K> keyOf) {
+        this.type = type;
+        this.keyOf = keyOf;
+        List<T> contents = new ArrayList<T>();
+        registration = lookup.subscribe(type, new ChangeListener<T>() {
+            public void changed(List<T> removals, List<T> additions) {
+                update(removals, additions);
+            }
+        }, contents);
+        synchronized (this) {
+            update(Collections.<T>emptyList(), contents, false);
+            List<List<T>> replay = pending;
+            pending = null;
+            for (int ii = 0; ii < replay.size(); ii += 2) {
+                update(replay.get(ii), replay.get(ii + 1), false);
+            }
+        }
+    }
+
+    private synchronized void update(List<T> removals, List<T> additions) {
+        if (pending != null) {
+            pending.add(removals);
+            pending.add(additions);
+            return;
+        }
+        update(removals, additions, true);
+    }
+
+    // Applies a change, grouped by key. Must hold this lock.
+    private void update(List<T> removals, List<T> additions, boolean notify) {
+        Map<Object, List<T>[]> requested = new LinkedHashMap<Object, List<T>[]>();
+        for (T t : removals) {
+            delta(requested, mask(keyOf.apply(t)))[0].add(t);
+        }
+        for (T t : additions) {
+            delta(requested, mask(keyOf.apply(t)))[1].add(t);
+        }
+        // Each key is changed and published once, under its Store's lock, so
+        // a reader sees all or none of its changes.
+        Map<Object, List<T>[]> changed = new LinkedHashMap<Object, List<T>[]>();
+        Map<Object, Store<T>> buckets = new HashMap<Object, Store<T>>();
+        for (Map.Entry<Object, List<T>[]> e : requested.entrySet()) {
+            Object key = e.getKey();
+            Store<T> bucket = entries.get(key);
+            if (bucket == null) {
+                if (e.getValue()[1].isEmpty()) continue;
+                bucket = new Store<T>(type, 0);
+                entries.put(key, bucket);
+            }
+            List<T> removed = new ArrayList<T>(e.getValue()[0].size());
+            synchronized (bucket) {
+                for (T t : e.getValue()[0]) {
+                    if (bucket.queue.remove(t)) removed.add(t);
+                }
+                for (T t : e.getValue()[1]) {
+                    bucket.queue.add(t);
+                }
+                if (removed.isEmpty() && e.getValue()[1].isEmpty()) continue;
+                bucket.changed();
+                if (bucket.queue.size() == 0) entries.remove(key);
+            }
+            e.getValue()[0] = removed;
+            changed.put(key, e.getValue());
+            buckets.put(key, bucket);
+        }
+        if (!notify) return;
+        for (Map.Entry<Object, List<T>[]> e : changed.entrySet()) {
+            List<LookupListener<T>> interested = listeners.get(e.getKey());
+            if (interested == null) continue;
+            // Basic listeners read the items for the key from the Store,
+            // which is empty if it has been removed.
+            Event<T> event = new Event<T>(buckets.get(e.getKey()),
+                    Collections.unmodifiableList(e.getValue()[0]),
+                    Collections.unmodifiableList(e.getValue()[1]),
+                    null, null);
+            for (LookupListener<T> l : interested) {
+                event.deliverSafely(l);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T>[] delta(Map<Object, List<T>[]> changed, Object key) {
+        List<T>[] r = changed.get(key);
+        if (r == null) {
+            r = new List[]{new ArrayList<T>(), new ArrayList<T>()};
+            changed.put(key, r);
+        }
+        return r;
+    }
+
+    /**
+     * @param key Key to find, may be null.
+     *
+     * @return Unmodifiable snapshot of the items with the given key, empty if
+     * there are none.
+     */
+    public List<T> get(K key) {
+        Store<T> r = entries.get(mask(key));
+        return r == null ? Collections.<T>emptyList() : r.snapshot();
+    }
+
+    /**
+     * @param key Key to find, may be null.
+     *
+     * @return An item with the given key, or null if there are none.
+     */
+    public T first(K key) {
+        Store<T> r = entries.get(mask(key));
+        return r == null ? null : r.first();
+    }
+
+    /**
+     * @return Snapshot of the keys which have at least one item.
+     */
+    public Set<K> keys() {
+        Set<K> r = new HashSet<K>();
+        for (Object key : entries.keySet()) {
+            r.add(KeyIndex.<K>unmask(key));
+        }
+        return r;
+    }
+
+    /**
+     * Register interest in the items with the given key. The listener is
+     * only notified of changes to those items, and basic listeners receive
+     * only those items.
+     *
+     * @param key Key of interest, may be null.
+     * @param listener Listener which will receive updates. May not be null.
+     */
+    public void register(K key, LookupListener<T> listener) {
+        if (listener == null) throw new IllegalArgumentException("listener");
+        Object k = mask(key);
+        List<LookupListener<T>> list = listeners.get(k);
+        if (list == null) {
+            List<LookupListener<T>> created = new CopyOnWriteArrayList<LookupListener<T>>();
+            list = listeners.putIfAbsent(k, created);
+            if (list == null) list = created;
+        }
+        list.add(listener);
+    }
+
+    /**
+     * Removes one registration of the given listener for the key.
+     *
+     * @throws IllegalArgumentException If the Listener has not been registered.
+     */
+    public void deregister(K key, LookupListener<T> listener) {
+        if (listener == null) throw new IllegalArgumentException("listener");
+        List<LookupListener<T>> list = listeners.get(mask(key));
+        if (list == null || !list.remove(listener)) {
+            throw new IllegalArgumentException("Listener is not registered");
+        }
+    }
+
+    /**
+     * Stops following the Lookup. The index is no longer updated.
+     */
+    public void close() {
+        registration.close();
+    }
+
+    private static Object mask(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> K unmask(Object key) {
+        return key == NULL_KEY ? null : (K) key;
+    }
+}
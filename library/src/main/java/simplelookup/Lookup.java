@@ -1,11 +1,33 @@
 package simplelookup;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import simplelookup.listener.LookupBasicListener;
 import simplelookup.listener.LookupDeltaListener;
@@ -18,12 +40,133 @@ import simplelookup.listener.LookupListener;
  *
  * The Lookup supports Views on a particular type of data in the Lookup. The
  * View provides control to manipulate the lookup for that type.
+ *
+ * The Lookup is thread safe. Each stored class is guarded by its own lock,
+ * so changes to unrelated classes can proceed in parallel. Listeners are
+ * notified on the mutating thread while the lock for the changed class is
+ * held, and so see the changes for a class in the order they were made.
+ * Alternatively a Lookup may be created with an {@link AsyncDelivery} to
+ * notify listeners on another thread, or with a {@link Quarantine} to move
+ * only the slow listeners off the mutating thread.
+ *
+ * <p><b>A listener notified on the mutating thread must not wait for a
+ * change made on another thread.</b> It runs while the lock for the changed
+ * class is held, so it may change another class on its own thread, which
+ * takes that class's lock as well. Two such listeners which each change the
+ * other's class from different threads can deadlock, as can a listener which
+ * blocks on a thread that is changing the Lookup. Listeners which do either
+ * should be notified through an {@link AsyncDelivery}, which holds no lock
+ * while they run, and whose mutating thread only waits for a full queue
+ * once it has released the lock.</p>
+ *
+ * Queries do not lock: they read immutable snapshots which are rebuilt only
+ * after a change.
  * 
  * @author Robert Wapshott
  */
 public class Lookup {
-    private Map<Class, List<LookupListener>> listenerMap = new HashMap<Class, List<LookupListener>>();
-    private Map<Class, IndexedQueue> values = new HashMap<Class, IndexedQueue>();
+    private static final LookupListener[] NO_LISTENERS = new LookupListener[0];
+
+    // Guarded by this Lookup's monitor.
+    private final Map<Class, List<LookupListener>> listenerMap = new HashMap<Class, List<LookupListener>>();
+    // Listeners to notify for each stored class, rebuilt on demand after any
+    // change to the registered listeners.
+    private final Map<Class, LookupListener[]> dispatch = new ConcurrentHashMap<Class, LookupListener[]>();
+    // Weakly registered listeners which have been collected
+    private final ReferenceQueue<LookupListener> collected = new ReferenceQueue<LookupListener>();
+    private final Map<Class, Store> stores = new ConcurrentHashMap<Class, Store>();
+    private final ClassIndex index = new ClassIndex();
+    // Guarded by index
+    private long nextStoreId;
+    private final Map<Class, View> views = new ConcurrentHashMap<Class, View>();
+    // Live query results for each View class
+    private final Map<Class, ResultHandle> results = new ConcurrentHashMap<Class, ResultHandle>();
+    // Null when listeners are notified synchronously
+    private final AsyncDelivery async;
+    // Null unless slow listeners are quarantined, only used when listeners
+    // are notified synchronously
+    private final Quarantine quarantine;
+    // Null unless statistics are enabled
+    private volatile LookupStats stats;
+    // Null unless this is a child Lookup
+    private final Lookup parent;
+    // Carries the changes in the parents to this child's listeners, one for
+    // each class a listener is registered against. Guarded by this
+    private final Map<Class, Forwarder> forwarders = new HashMap<Class, Forwarder>();
+    // Number of providers not yet materialized, in every Store
+    private final AtomicInteger pendingProviders = new AtomicInteger();
+    // Null unless changes are recorded in a journal
+    private volatile LookupJournal journal;
+
+    /**
+     * Creates a Lookup which notifies listeners on the mutating thread. An
+     * exception thrown by a listener is reported to the thread's uncaught
+     * exception handler, and does not stop other listeners being notified.
+     */
+    public Lookup() {
+        this.async = null;
+        this.quarantine = null;
+        this.parent = null;
+    }
+
+    /**
+     * Creates a Lookup which notifies listeners asynchronously.
+     *
+     * @param async Configures the asynchronous delivery. May not be null.
+     */
+    public Lookup(AsyncDelivery async) {
+        if (async == null) throw new IllegalArgumentException("async");
+        this.async = async;
+        this.quarantine = null;
+        this.parent = null;
+    }
+
+    /**
+     * Creates a Lookup which notifies listeners on the mutating thread, until
+     * they exceed their budget and are quarantined.
+     *
+     * @param quarantine Configures the budgets and the slow lane. May not be
+     * null.
+     */
+    public Lookup(Quarantine quarantine) {
+        if (quarantine == null) throw new IllegalArgumentException("quarantine");
+        this.async = null;
+        this.quarantine = quarantine;
+        this.parent = null;
+    }
+
+    // Creates a child of the given Lookup.
+    private Lookup(Lookup parent) {
+        this.async = parent.async;
+        this.quarantine = parent.quarantine;
+        this.parent = parent;
+    }
+
+    /**
+     * Creates a child of this Lookup. Queries of the child include the items
+     * of this Lookup and its parents, after the child's own items, so the
+     * first item found is the one nearest the child. Changes to the child
+     * do not affect this Lookup. Listeners registered with the child are
+     * also notified of changes to this Lookup and its parents.
+     *
+     * The child is cheap to create and holds nothing until it is used, and
+     * notifies its listeners in the same way as this Lookup. Its listeners
+     * are held by the child, which registers one listener of its own with
+     * this Lookup for each class they are registered against. That listener
+     * is held weakly, so a child which is no longer used need not be closed.
+     *
+     * @return A new, empty child Lookup.
+     */
+    public Lookup child() {
+        return new Lookup(this);
+    }
+
+    /**
+     * @return The Lookup this is a child of, or null.
+     */
+    public Lookup parent() {
+        return parent;
+    }
 
     /**
      * Register interest in the Lookup and receive notifications when the Lookup
@@ -35,17 +178,130 @@ public class Lookup {
      *
      * @param classToMap The class for the type of updates to receive. May not
      * be null.
+     *
+     * @return A Registration which removes this record of interest when
+     * closed.
+     */
+    public synchronized <T> Registration register(Class<T> classToMap, LookupListener<T> listener) {
+        if (listener == null) throw new IllegalArgumentException("listener");
+        if (classToMap == null) throw new IllegalArgumentException("classToMap");
+        return add(classToMap, listener);
+    }
+
+    /**
+     * Registers a listener as {@link #register} does, but without the Lookup
+     * keeping the listener reachable. Once the listener has been garbage
+     * collected it is removed from the Lookup, so the caller need not
+     * deregister it. The caller must hold a reference to the listener for as
+     * long as it should receive updates.
+     *
+     * @param listener Listener which will receive updates. May not be null.
+     *
+     * @param classToMap The class for the type of updates to receive. May not
+     * be null.
+     *
+     * @return A Registration which removes this record of interest when
+     * closed.
      */
-    public synchronized <T> void register(Class<T> classToMap, LookupListener<T> listener) {
+    public synchronized <T> Registration registerWeak(Class<T> classToMap, LookupListener<T> listener) {
         if (listener == null) throw new IllegalArgumentException("listener");
         if (classToMap == null) throw new IllegalArgumentException("classToMap");
+        return add(classToMap, new WeakListener(classToMap, listener, collected));
+    }
+
+    /**
+     * Registers a listener and reads the contents of a class at the same
+     * instant, so the listener is notified of exactly the changes which are
+     * not in the contents. Every Store assignable to the class, in this
+     * Lookup and then each parent, is locked while the listener is registered
+     * and the contents are read.
+     *
+     * @param contents Receives the contents of the class.
+     */
+    <T> Registration subscribe(Class<T> c, LookupListener<T> listener, List<T> contents) {
+        while (true) {
+            // This Lookup and each parent, with the Stores assignable to the
+            // class in each.
+            List<Lookup> chain = new ArrayList<Lookup>();
+            List<List<Class>> matched = new ArrayList<List<Class>>();
+            List<Store> locks = new ArrayList<Store>();
+            for (Lookup l = this; l != null; l = l.parent) {
+                List<Class> m = new ArrayList<Class>(l.index.get(c));
+                List<Store> level = new ArrayList<Store>();
+                for (Class k : m) {
+                    level.add(l.stores.get(k));
+                }
+                Collections.sort(level, new Comparator<Store>() {
+                    public int compare(Store a, Store b) {
+                        return Long.compare(a.id, b.id);
+                    }
+                });
+                chain.add(l);
+                matched.add(m);
+                locks.addAll(level);
+            }
+            Registration r = subscribe(c, listener, contents, chain, matched, locks, 0);
+            if (r != null) return r;
+        }
+    }
+
+    // Takes each Store lock in turn, then registers and reads the contents.
+    // Returns null if a Store was added in the meantime.
+    private <T> Registration subscribe(Class<T> c, LookupListener<T> listener, List<T> contents,
+            List<Lookup> chain, List<List<Class>> matched, List<Store> locks, int locked) {
+        if (locked < locks.size()) {
+            synchronized (locks.get(locked)) {
+                return subscribe(c, listener, contents, chain, matched, locks, locked + 1);
+            }
+        }
+        Registration r = register(c, listener);
+        // A Store added after this point will notify the listener of all of
+        // its changes, one added before was not locked.
+        for (int ii = 0; ii < chain.size(); ii++) {
+            if (!chain.get(ii).index.get(c).equals(matched.get(ii))) {
+                r.close();
+                return null;
+            }
+        }
+        // The parents' contents follow, as they do in a query.
+        for (int ii = 0; ii < chain.size(); ii++) {
+            for (Class k : matched.get(ii)) {
+                contents.addAll(chain.get(ii).stores.get(k).queue.list());
+            }
+        }
+        return r;
+    }
 
+    private Registration add(Class classToMap, LookupListener entry) {
         List<LookupListener> listeners = listenerMap.get(classToMap);
         if (listeners == null) {
             listeners = new LinkedList<LookupListener>();
             listenerMap.put(classToMap, listeners);
         }
-        listeners.add(listener);
+        listeners.add(entry);
+        dispatch.clear();
+        if (parent != null) forward(classToMap);
+        return new Registration(this, classToMap, entry);
+    }
+
+    // Updates the Forwarder for a class after its listeners have changed,
+    // registering it with the parent for the first listener and closing it
+    // after the last. Must be called with this Lookup's monitor held.
+    private void forward(Class classToMap) {
+        List<LookupListener> listeners = listenerMap.get(classToMap);
+        Forwarder f = forwarders.get(classToMap);
+        if (listeners == null) {
+            if (f == null) return;
+            forwarders.remove(classToMap);
+            f.registration.close();
+            return;
+        }
+        if (f == null) {
+            f = new Forwarder();
+            forwarders.put(classToMap, f);
+            f.registration = parent.registerWeak(classToMap, f);
+        }
+        f.listeners = listeners.toArray(new LookupListener[listeners.size()]);
     }
 
     /**
@@ -66,9 +322,749 @@ public class Lookup {
         if (classToMap == null) throw new IllegalArgumentException("classToMap");
         
         List<LookupListener> list = listenerMap.get(classToMap);
-        if(list == null || !list.remove(listener)) {
+        LookupListener entry = list == null ? null : find(list, listener);
+        if (entry == null) {
             throw new IllegalArgumentException("Listener is not registered");
         }
+        remove(classToMap, entry);
+    }
+
+    // Returns the entry in the list for the listener, which may be held weakly.
+    private static LookupListener find(List<LookupListener> list, LookupListener listener) {
+        for (LookupListener entry : list) {
+            if (entry.equals(listener) || WeakListener.resolve(entry) == listener) return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Closes a Registration, removing its entry if it is still registered.
+     */
+    synchronized void close(Registration registration, Class classToMap) {
+        if (registration.closed) return;
+        registration.closed = true;
+        List<LookupListener> list = listenerMap.get(classToMap);
+        if (list == null) return;
+        for (LookupListener entry : list) {
+            if (entry == registration.entry) {
+                remove(classToMap, entry);
+                return;
+            }
+        }
+    }
+
+    // Removes one occurrence of the entry from the listeners for the class.
+    // Must be called with this Lookup's monitor held.
+    private void remove(Class classToMap, LookupListener entry) {
+        List<LookupListener> list = listenerMap.get(classToMap);
+        for (Iterator<LookupListener> it = list.iterator(); it.hasNext();) {
+            if (it.next() == entry) {
+                it.remove();
+                break;
+            }
+        }
+        if (list.isEmpty()) listenerMap.remove(classToMap);
+        dispatch.clear();
+        if (parent != null) forward(classToMap);
+        if (!isRegistered(entry)) {
+            if (async != null) async.removed(entry);
+            if (quarantine != null) quarantine.removed(entry);
+        }
+    }
+
+    /**
+     * Removes any weakly registered listeners which have been collected.
+     */
+    private synchronized void expunge(Reference<? extends LookupListener> ref) {
+        for (; ref != null; ref = collected.poll()) {
+            WeakListener entry = (WeakListener) ref;
+            List<LookupListener> list = listenerMap.get(entry.type);
+            if (list != null && list.contains(entry)) {
+                remove(entry.type, entry);
+            }
+        }
+    }
+
+    /**
+     * @return The number of registrations held, including weak ones whose
+     * listener has been collected but not yet removed.
+     */
+    synchronized int registrations() {
+        int count = 0;
+        for (List<LookupListener> list : listenerMap.values()) {
+            count += list.size();
+        }
+        return count;
+    }
+
+    private boolean isRegistered(LookupListener entry) {
+        for (List<LookupListener> list : listenerMap.values()) {
+            if (list.contains(entry)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the Listeners interested in changes to the given class, which
+     * includes those registered against any of its super classes or
+     * interfaces. The array is shared between calls and must not be modified.
+     * Weakly registered listeners appear as their {@link WeakListener}.
+     */
+    private LookupListener[] getListeners(Class c) {
+        Reference<? extends LookupListener> ref = collected.poll();
+        if (ref != null) expunge(ref);
+        LookupListener[] r = dispatch.get(c);
+        if (r != null) return r;
+        synchronized (this) {
+            r = dispatch.get(c);
+            if (r != null) return r;
+            List<LookupListener> found = new LinkedList<LookupListener>();
+            for (Class type : TypeClosure.of(c)) {
+                List<LookupListener> l = listenerMap.get(type);
+                if (l != null) found.addAll(l);
+            }
+            r = found.isEmpty() ? NO_LISTENERS : found.toArray(new LookupListener[found.size()]);
+            dispatch.put(c, r);
+            return r;
+        }
+    }
+
+    /**
+     * @return The number of listeners notified of changes to the given class.
+     */
+    int listenerCount(Class c) {
+        return getListeners(c).length;
+    }
+
+    /**
+     * Starts collecting statistics for this Lookup. Until this is called the
+     * Lookup collects none, and the cost is a single check per change.
+     *
+     * @return The statistics, which are shared by every call until
+     * {@link #disableStats()}.
+     */
+    public synchronized LookupStats enableStats() {
+        if (stats == null) stats = new LookupStats(this);
+        return stats;
+    }
+
+    /**
+     * Stops collecting statistics, and removes any MBeans registered for
+     * them. Statistics already collected are discarded.
+     */
+    public synchronized void disableStats() {
+        if (stats == null) return;
+        stats.unregisterMBeans();
+        stats = null;
+    }
+
+    /**
+     * @return The statistics being collected, or null if they are disabled.
+     */
+    LookupStats stats() {
+        return stats;
+    }
+
+    /**
+     * Returns the Store for the given class, creating one if there is not
+     * one already.
+     */
+    private <T> Store<T> getStore(Class<T> c) {
+        Store<T> store = stores.get(c);
+        if (store != null) return store;
+        synchronized (index) {
+            store = stores.get(c);
+            if (store == null) {
+                store = new Store<T>(c, nextStoreId++);
+                // Publish the Store before it can be found through the index.
+                stores.put(c, store);
+                index.add(c);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * @return The Store for a class found through {@link #matches}.
+     */
+    Store store(Class c) {
+        return stores.get(c);
+    }
+
+    /**
+     * @return Every stored class assignable to the given class.
+     */
+    List<Class> matches(Class c) {
+        return index.get(c);
+    }
+
+    /**
+     * Returns the ResultHandle for the given View class, creating one if
+     * there is not one already.
+     */
+    private <T> ResultHandle<T> getResult(Class<T> c) {
+        ResultHandle<T> r = results.get(c);
+        if (r == null) {
+            ResultHandle<T> created = new ResultHandle<T>(this, c, parent == null ? null : parent.getResult(c));
+            r = results.putIfAbsent(c, created);
+            if (r == null) r = created;
+        }
+        return r;
+    }
+
+    /**
+     * Signals that the contents of the given Store have changed, the Store
+     * lock must be held. Every ResultHandle the Store contributes to is
+     * updated.
+     *
+     * @param removed Items which may have been removed.
+     * @param added Items which were added.
+     */
+    private void changed(Store store, Collection removed, Collection added) {
+        int delta = store.changed();
+        boolean ordered = store.queue instanceof SortedQueue;
+        for (Class type : TypeClosure.of(store.type)) {
+            ResultHandle r = results.get(type);
+            if (r != null) r.changed(delta, removed, added, ordered);
+        }
+    }
+
+    /**
+     * Records a change to the Store in the journal, then publishes it. The
+     * Store lock must be held.
+     */
+    private <S> void update(Store<S> store, List<S> removals, List<S> additions) {
+        journal(store, false, removals, additions);
+        publish(store, removals, additions);
+    }
+
+    /**
+     * Waits for room in any listener queue this thread filled past its
+     * capacity while it held the Store lock. A caller which still holds the
+     * lock, such as a Slot, waits once it has released it.
+     */
+    void awaitDelivery(Store store) {
+        if (async != null && !Thread.holdsLock(store)) async.awaitCapacity();
+    }
+
+    // Records a change in the journal, if there is one. The Store lock must
+    // be held. A replacement is recorded as the new contents.
+    private <S> void journal(Store<S> store, boolean replaced, List<S> removals, List<S> additions) {
+        LookupJournal journal = this.journal;
+        if (journal != null) journal.record(store, replaced, removals, additions);
+    }
+
+    /**
+     * Publishes a change to the Store and notifies listeners. The Store lock
+     * must be held. The lists are not modified afterwards, so they may be
+     * handed to listeners as they are.
+     */
+    private <S> void publish(Store<S> store, List<S> removals, List<S> additions) {
+        changed(store, removals, additions);
+        LookupStats stats = this.stats;
+        if (stats != null) stats.mutated(store.type, removals.size(), additions.size());
+        LookupListener[] listeners = getListeners(store.type);
+        if (listeners.length == 0) return;
+        notifyListeners(store, listeners, removals, additions, stats);
+    }
+
+    // Signal all listeners of a change to the Store, its lock must be held.
+    private <S> void notifyListeners(Store<S> store, LookupListener[] listeners, List<S> removals, List<S> additions, LookupStats stats) {
+        if (async != null) {
+            // The change is delivered later, so must carry the contents
+            // as they are now.
+            List<S> contents = null;
+            for (LookupListener l : listeners) {
+                if (WeakListener.isBasic(l)) {
+                    contents = store.snapshot();
+                    break;
+                }
+            }
+            async.deliver(listeners, new Event<S>(store, removals, additions, contents, stats));
+            return;
+        }
+        Event<S> event = new Event<S>(store, removals, additions, null, stats);
+        for (LookupListener l : listeners) {
+            deliver(l, event);
+        }
+    }
+
+    /**
+     * Materializes any providers waiting in the Stores assignable to the
+     * given class, before they are queried.
+     */
+    void materialize(Class c) {
+        if (pendingProviders.get() == 0) return;
+        for (Class k : index.get(c)) {
+            materialize(stores.get(k));
+        }
+    }
+
+    /**
+     * Materializes any providers waiting in the Store, before it is read.
+     */
+    <T> void materialize(Store<T> store) {
+        // Only a Store with providers of its own is locked.
+        if (pendingProviders.get() == 0 || store.providers == null) return;
+        List<Store.Provider<T>> pending;
+        synchronized (store) {
+            if (store.providers == null) return;
+            pending = new ArrayList<Store.Provider<T>>(store.providers);
+        }
+        // Construct outside the Store lock, as a supplier may itself query
+        // the Lookup. Each provider constructs its item only once, however
+        // many threads get here.
+        List<Collection<? extends T>> items = new ArrayList<Collection<? extends T>>(pending.size());
+        for (Store.Provider<T> p : pending) {
+            items.add(p.get());
+        }
+        synchronized (store) {
+            List<T> added = new ArrayList<T>();
+            List<T> journaled = new ArrayList<T>();
+            for (int ii = 0; ii < pending.size(); ii++) {
+                // Another thread may have added them already, or they may
+                // have been replaced.
+                if (store.providers == null || !store.providers.remove(pending.get(ii))) continue;
+                pendingProviders.decrementAndGet();
+                for (T t : items.get(ii)) {
+                    store.queue.add(t);
+                    added.add(t);
+                    if (pending.get(ii).journaled) journaled.add(t);
+                }
+            }
+            if (store.providers != null && store.providers.isEmpty()) store.providers = null;
+            if (!journaled.isEmpty()) journal(store, false, Collections.<T>emptyList(), Collections.unmodifiableList(journaled));
+            if (!added.isEmpty()) publish(store, Collections.<T>emptyList(), Collections.unmodifiableList(added));
+        }
+        // A query does not wait for listeners, it may be running in one.
+        if (async != null) async.skipCapacity();
+    }
+
+    // Adds providers to the Store for a class, taking its lock once.
+    private <T> void addProviders(Class<T> c, List<Supplier<? extends T>> suppliers) {
+        Store<T> store = getStore(c);
+        synchronized (store) {
+            if (store.providers == null) {
+                store.providers = new LinkedHashSet<Store.Provider<T>>();
+            }
+            for (Supplier<? extends T> supplier : suppliers) {
+                store.providers.add(Store.Provider.<T>of(supplier));
+            }
+            pendingProviders.addAndGet(suppliers.size());
+        }
+    }
+
+    /**
+     * Adds a provider of items restored from a snapshot to the Store for a
+     * class. The supplier is called when a View which includes the class is
+     * first queried, and the items are added in a single notification. They
+     * are not recorded in a journal, as the snapshot already holds them.
+     *
+     * @param sequence Sequence of the last journaled change the snapshot
+     * includes.
+     */
+    <T> void restore(Class<T> c, long sequence, Supplier<? extends Collection<? extends T>> supplier) {
+        Store<T> store = getStore(c);
+        synchronized (store) {
+            if (store.providers == null) {
+                store.providers = new LinkedHashSet<Store.Provider<T>>();
+            }
+            store.providers.add(new Store.Provider<T>(supplier, false));
+            pendingProviders.incrementAndGet();
+            store.sequence = Math.max(store.sequence, sequence);
+        }
+    }
+
+    /**
+     * Applies a change read back from a journal, unless the Store already
+     * includes it. Items removed are first materialized, so they can be
+     * found.
+     *
+     * @return True if the change was applied.
+     */
+    <T> boolean replay(Class<T> c, long sequence, boolean replaced, List<T> removals, List<T> additions) {
+        Store<T> store = getStore(c);
+        synchronized (store) {
+            if (sequence <= store.sequence) return false;
+        }
+        if (!replaced) materialize(store);
+        synchronized (store) {
+            if (sequence <= store.sequence) return false;
+            store.sequence = sequence;
+            if (replaced) {
+                List<T> old = store.queue.size() > 0 ? store.snapshot() : Collections.<T>emptyList();
+                store.queue.clear();
+                dropProviders(store);
+                for (T t : additions) {
+                    store.queue.add(t);
+                }
+                publish(store, old, additions);
+            } else {
+                for (T t : removals) {
+                    store.queue.remove(t);
+                }
+                for (T t : additions) {
+                    store.queue.add(t);
+                }
+                publish(store, removals, additions);
+            }
+        }
+        awaitDelivery(store);
+        return true;
+    }
+
+    /**
+     * @return The highest sequence of any journaled change or snapshot the
+     * Stores include.
+     */
+    long sequence() {
+        long r = 0;
+        for (Store store : stores.values()) {
+            synchronized (store) {
+                r = Math.max(r, store.sequence);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Starts or stops recording changes in a journal.
+     *
+     * @throws IllegalStateException If a different journal is already
+     * recording changes.
+     */
+    synchronized void setJournal(LookupJournal journal) {
+        if (journal != null && this.journal != null && this.journal != journal) {
+            throw new IllegalStateException("Lookup already has a journal");
+        }
+        this.journal = journal;
+    }
+
+    /**
+     * Creates a Lookup populated from the indexes of {@link LookupService}
+     * classes visible to the class loader, as {@link #loadIndex(ClassLoader)}.
+     *
+     * @param loader Class loader to find the indexes and classes with. May
+     * not be null.
+     *
+     * @return A new Lookup.
+     */
+    public static Lookup fromIndex(ClassLoader loader) {
+        Lookup lookup = new Lookup();
+        lookup.loadIndex(loader);
+        return lookup;
+    }
+
+    /**
+     * Adds every class in the {@link LookupService} indexes visible to the
+     * class loader, as providers. Only the service classes are loaded: each
+     * registered class is loaded and instantiated when a View which includes
+     * it is first queried, and all of the providers for a service class are
+     * then added in a single notification. A class registered under several
+     * services is instantiated once, and the same instance is added under
+     * each of them.
+     *
+     * @param loader Class loader to find the indexes and classes with. May
+     * not be null.
+     *
+     * @return Number of providers added.
+     *
+     * @throws IllegalStateException If an index could not be read, or names
+     * a service class which cannot be found.
+     */
+    public int loadIndex(final ClassLoader loader) {
+        if (loader == null) throw new IllegalArgumentException("loader");
+        Map<Class, List<Supplier<?>>> entries = new LinkedHashMap<Class, List<Supplier<?>>>();
+        // One instance of each registered class, shared by its services
+        Map<String, Supplier<?>> instances = new HashMap<String, Supplier<?>>();
+        int count = 0;
+        try {
+            Enumeration<URL> indexes = loader.getResources(LookupService.INDEX);
+            while (indexes.hasMoreElements()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        indexes.nextElement().openStream(), StandardCharsets.UTF_8));
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        String[] names = line.trim().split(" +");
+                        if (names.length < 2) continue;
+                        Class service = Class.forName(names[0], false, loader);
+                        List<Supplier<?>> suppliers = entries.get(service);
+                        if (suppliers == null) {
+                            suppliers = new ArrayList<Supplier<?>>();
+                            entries.put(service, suppliers);
+                        }
+                        for (int ii = 1; ii < names.length; ii++) {
+                            Supplier<?> instance = instances.get(names[ii]);
+                            if (instance == null) {
+                                instance = instantiate(names[ii], loader);
+                                instances.put(names[ii], instance);
+                            }
+                            suppliers.add(cast(instance, service));
+                            count++;
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + LookupService.INDEX, e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Service class not found", e);
+        }
+        for (Map.Entry<Class, List<Supplier<?>>> e : entries.entrySet()) {
+            addProviders(e.getKey(), (List) e.getValue());
+        }
+        return count;
+    }
+
+    // Supplies a single instance of the named class, loaded on first use.
+    private static Supplier<?> instantiate(final String name, final ClassLoader loader) {
+        return new Supplier<Object>() {
+            // Guarded by this
+            private Object instance;
+
+            public synchronized Object get() {
+                if (instance != null) return instance;
+                try {
+                    instance = Class.forName(name, true, loader).getConstructor().newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Could not instantiate " + name, e);
+                }
+                return instance;
+            }
+        };
+    }
+
+    // Checks each instance supplied is assignable to the service.
+    private static Supplier<?> cast(final Supplier<?> supplier, final Class service) {
+        return new Supplier<Object>() {
+            public Object get() {
+                return service.cast(supplier.get());
+            }
+        };
+    }
+
+    /**
+     * Adds the providers of a service registered in META-INF/services, as
+     * found by {@link ServiceLoader}, as providers in this Lookup. Each
+     * provider is instantiated when a View which includes the service is
+     * first queried, and they are all added in a single notification.
+     *
+     * @param service The service class, which the providers are added under.
+     * May not be null.
+     * @param loader Class loader to find the providers with. May not be null.
+     *
+     * @return Number of providers added.
+     */
+    public <S> int loadServices(Class<S> service, ClassLoader loader) {
+        if (service == null) throw new IllegalArgumentException("service");
+        if (loader == null) throw new IllegalArgumentException("loader");
+        List<Supplier<? extends S>> suppliers = new ArrayList<Supplier<? extends S>>();
+        Iterator<ServiceLoader.Provider<S>> it = ServiceLoader.load(service, loader).stream().iterator();
+        while (it.hasNext()) {
+            suppliers.add(it.next());
+        }
+        addProviders(service, suppliers);
+        return suppliers.size();
+    }
+
+    // Discards the providers waiting in a Store, its lock must be held.
+    private void dropProviders(Store store) {
+        if (store.providers == null) return;
+        pendingProviders.addAndGet(-store.providers.size());
+        store.providers = null;
+    }
+
+    /**
+     * Starts a new Batch of changes to this Lookup. Nothing is changed until
+     * the Batch is committed.
+     *
+     * @return A non null, empty Batch.
+     */
+    public Batch batch() {
+        return new Batch(this);
+    }
+
+    /**
+     * Applies the changes from a Batch. The locks for every Store involved
+     * are taken, in order of Store id, for the whole of the update and the
+     * notification of listeners.
+     */
+    void commit(List<Batch.Op> ops) {
+        Map<Class, Batch.Delta> deltas = new LinkedHashMap<Class, Batch.Delta>();
+        for (Batch.Op op : ops) {
+            if (!deltas.containsKey(op.type)) {
+                deltas.put(op.type, new Batch.Delta(getStore(op.type)));
+            }
+        }
+        List<Batch.Delta> locks = new ArrayList<Batch.Delta>(deltas.values());
+        Collections.sort(locks, new Comparator<Batch.Delta>() {
+            public int compare(Batch.Delta a, Batch.Delta b) {
+                return Long.compare(a.store.id, b.store.id);
+            }
+        });
+        commit(ops, deltas, locks, 0);
+        if (!locks.isEmpty()) awaitDelivery(locks.get(0).store);
+    }
+
+    private void commit(List<Batch.Op> ops, Map<Class, Batch.Delta> deltas, List<Batch.Delta> locks, int locked) {
+        if (locked < locks.size()) {
+            synchronized (locks.get(locked).store) {
+                commit(ops, deltas, locks, locked + 1);
+            }
+            return;
+        }
+
+        Set<Batch.Delta> replaced = new HashSet<Batch.Delta>();
+        for (Batch.Op op : ops) {
+            Batch.Delta delta = deltas.get(op.type);
+            IndexedQueue queue = delta.store.queue;
+            if (op.kind == Batch.Op.REPLACE) {
+                for (Object t : queue.list()) {
+                    delta.removed(t);
+                }
+                dropProviders(delta.store);
+                queue.clear();
+                replaced.add(delta);
+            }
+            for (Object t : op.items) {
+                if (op.kind == Batch.Op.REMOVE) {
+                    if (queue.remove(t)) delta.removed(t);
+                } else {
+                    queue.add(t);
+                    delta.added(t);
+                }
+            }
+        }
+        for (Batch.Delta delta : deltas.values()) {
+            if (replaced.contains(delta)) {
+                journal(delta.store, true, Collections.emptyList(), Collections.unmodifiableList(delta.store.queue.list()));
+            } else if (!delta.isEmpty()) {
+                journal(delta.store, false, delta.removals(), delta.additions());
+            }
+        }
+        LookupStats stats = this.stats;
+        if (stats != null) {
+            for (Batch.Delta delta : deltas.values()) {
+                stats.mutated(delta.store.type, delta.removals().size(), delta.additions().size());
+            }
+        }
+        // Each ResultHandle is updated once for the whole Batch.
+        Map<ResultHandle, Batch.Delta> updates = new LinkedHashMap<ResultHandle, Batch.Delta>();
+        Set<ResultHandle> reordered = new HashSet<ResultHandle>();
+        for (Batch.Delta delta : deltas.values()) {
+            delta.sizeDelta = delta.store.changed();
+            boolean ordered = delta.store.queue instanceof SortedQueue;
+            for (Class type : TypeClosure.of(delta.store.type)) {
+                ResultHandle r = results.get(type);
+                if (r == null) continue;
+                Batch.Delta update = updates.get(r);
+                updates.put(r, update == null ? delta : update.combine(delta));
+                if (ordered) reordered.add(r);
+            }
+        }
+        for (Map.Entry<ResultHandle, Batch.Delta> e : updates.entrySet()) {
+            Batch.Delta update = e.getValue();
+            e.getKey().changed(update.sizeDelta, update.removals(), update.additions(), reordered.contains(e.getKey()));
+        }
+
+        // Gather the changed Stores each listener is interested in.
+        Map<LookupListener, List<Batch.Delta>> targets = new LinkedHashMap<LookupListener, List<Batch.Delta>>();
+        for (Batch.Delta delta : deltas.values()) {
+            if (delta.isEmpty()) continue;
+            for (LookupListener l : getListeners(delta.store.type)) {
+                List<Batch.Delta> matched = targets.get(l);
+                if (matched == null) {
+                    matched = new ArrayList<Batch.Delta>(1);
+                    targets.put(l, matched);
+                }
+                if (!matched.contains(delta)) matched.add(delta);
+            }
+        }
+        for (Map.Entry<LookupListener, List<Batch.Delta>> e : targets.entrySet()) {
+            LookupListener l = e.getKey();
+            Event event = event(e.getValue(), WeakListener.isBasic(l), stats);
+            if (async != null) {
+                async.deliver(new LookupListener[]{l}, event);
+            } else {
+                deliver(l, event);
+            }
+        }
+    }
+
+    // Notifies a listener on the mutating thread, the Store lock must be held.
+    private void deliver(LookupListener l, Event event) {
+        if (quarantine != null) {
+            quarantine.deliver(l, event);
+        } else {
+            event.deliverSafely(l);
+        }
+    }
+
+    /**
+     * Registered weakly with the parent for one class, and passes each change
+     * in the parent on to the listeners registered with this child against
+     * that class. It is only reachable from the child, so the parent drops it
+     * once the child has been collected.
+     */
+    final class Forwarder implements LookupListener {
+        // The registration with the parent, guarded by the child's monitor
+        Registration registration;
+        // The child's listeners for the class, replaced as they change
+        volatile LookupListener[] listeners = NO_LISTENERS;
+
+        Forwarder() {
+        }
+
+        /**
+         * @return True if any of the listeners is a basic listener, so the
+         * parent must capture its contents for a later delivery.
+         */
+        boolean isBasic() {
+            for (LookupListener l : listeners) {
+                if (WeakListener.isBasic(l)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Delivers a change in the parent to each listener, on the thread the
+         * parent delivered it on.
+         */
+        void forward(Event event) {
+            Reference<? extends LookupListener> ref = collected.poll();
+            if (ref != null) expunge(ref);
+            for (LookupListener l : listeners) {
+                if (async != null) {
+                    event.deliverSafely(l);
+                } else {
+                    deliver(l, event);
+                }
+            }
+        }
+    }
+
+    // Combines the changes to one or more Stores into a single Event
+    private Event event(List<Batch.Delta> matched, boolean basic, LookupStats stats) {
+        if (matched.size() == 1) {
+            Batch.Delta delta = matched.get(0);
+            List contents = basic ? delta.store.snapshot() : null;
+            return new Event(delta.store, delta.removals(), delta.additions(), contents, stats);
+        }
+        List removals = new ArrayList();
+        List additions = new ArrayList();
+        List contents = basic ? new ArrayList() : null;
+        for (Batch.Delta delta : matched) {
+            removals.addAll(delta.removals());
+            additions.addAll(delta.additions());
+            if (basic) contents.addAll(delta.store.snapshot());
+        }
+        return new Event(matched.get(0).store,
+                Collections.unmodifiableList(removals),
+                Collections.unmodifiableList(additions),
+                basic ? Collections.unmodifiableList(contents) : null, stats);
     }
 
     /**
@@ -78,19 +1074,38 @@ public class Lookup {
      * @param classToView Class which will control the type of this View.  May
      * not be null.
      *
-     * @return A non null View of the Lookup.
+     * @return A non null View of the Lookup. The same View is returned for
+     * each call with the same class, and may be shared between threads.
      */
     public <T> View<T> getView(Class<T> classToView) {
         if (classToView == null) throw new IllegalArgumentException("class");
-        return new View<T>(classToView);
+        View<T> view = views.get(classToView);
+        if (view == null) {
+            View<T> created = new View<T>(classToView);
+            view = views.putIfAbsent(classToView, created);
+            if (view == null) view = created;
+        }
+        return view;
     }
 
-    public class View<S> {
+    /**
+     * Returns a Slot holding a single value of the given class. The value is
+     * shared with every View of the class, and in a child Lookup falls back to
+     * the parent's value.
+     *
+     * @param classToHold Class of the value. May not be null.
+     *
+     * @return A non null Slot.
+     */
+    public <T> Slot<T> slot(Class<T> classToHold) {
+        if (classToHold == null) throw new IllegalArgumentException("class");
+        Slot<T> inherited = parent == null ? null : parent.slot(classToHold);
+        return new Slot<T>(this, getView(classToHold), getStore(classToHold), inherited);
+    }
 
-        private final List<S> additions = new LinkedList<S>();
-        private final List<S> removals = new LinkedList<S>();
+    public class View<S> {
 
-        private Class<S> c;
+        private final Class<S> c;
         View(Class<S> c) {
             this.c = c;
         }
@@ -101,14 +1116,33 @@ public class Lookup {
          *
          * @param t Item to add to the Lookup.
          */
-        public synchronized void add(S t) {
-            // Add the value to the list
-            getValues().add(t);
-            List<LookupListener> listeners = getListeners();
-            if (listeners == null) return;
-            clear();
-            additions.add(t);
-            notifyListeners(listeners);
+        public void add(S t) {
+            Store<S> store = getStore(c);
+            synchronized (store) {
+                store.queue.add(t);
+                update(store, Collections.<S>emptyList(), Collections.singletonList(t));
+            }
+            awaitDelivery(store);
+        }
+
+        /**
+         * Adds an item to the Lookup which is not constructed until it is
+         * needed: the first time a View which includes it is queried. The
+         * supplier is then called once, even if several threads query at
+         * the same time, and listeners are notified of the item being
+         * added. Until then the item is not counted by any View, and is not
+         * seen by listeners, sub-views or ordered queries.
+         *
+         * A replacement of the contents of the class discards any providers
+         * not yet materialized.
+         *
+         * @param supplier Constructs the item. If it throws, the exception is
+         * passed to the caller of the query and the supplier is called again
+         * on the next. May not be null.
+         */
+        public void addProvider(Supplier<? extends S> supplier) {
+            if (supplier == null) throw new IllegalArgumentException("supplier");
+            addProviders(c, Collections.<Supplier<? extends S>>singletonList(supplier));
         }
 
         /**
@@ -117,14 +1151,14 @@ public class Lookup {
          *
          * @param t Item to remove from the Lookup.
          */
-        public synchronized void remove(S t) {
-            if (getValues().remove(t)) {
-                List<LookupListener> listeners = getListeners();
-                if (listeners == null) return;
-                clear();
-                removals.add(t);
-                notifyListeners(listeners);
+        public void remove(S t) {
+            Store<S> store = getStore(c);
+            synchronized (store) {
+                if (store.queue.remove(t)) {
+                    update(store, Collections.singletonList(t), Collections.<S>emptyList());
+                }
             }
+            awaitDelivery(store);
         }
 
         /**
@@ -134,16 +1168,16 @@ public class Lookup {
          *
          * @param list List of items to add to the Lookup.
          */
-        public synchronized void addAll(Collection<S> list) {
-            IndexedQueue<S> queue = getValues();
-            for (S t : list) {
-                queue.add(t);
+        public void addAll(Collection<S> list) {
+            List<S> additions = Collections.unmodifiableList(new ArrayList<S>(list));
+            Store<S> store = getStore(c);
+            synchronized (store) {
+                for (S t : additions) {
+                    store.queue.add(t);
+                }
+                update(store, Collections.<S>emptyList(), additions);
             }
-            List<LookupListener> listeners = getListeners();
-            if (listeners == null) return;
-            clear();
-            additions.addAll(list);
-            notifyListeners(listeners);
+            awaitDelivery(store);
         }
 
         /**
@@ -153,107 +1187,172 @@ public class Lookup {
          *
          * @param list List of items to remove from the Lookup.
          */
-        public synchronized void removeAll(Collection<S> list) {
-            IndexedQueue<S> queue = getValues();
-            for (S s : list) {
-                queue.remove(s);
-            }
-            List<LookupListener> listeners = getListeners();
-            if (listeners == null) return;
-            clear();
-            removals.addAll(list);
-            notifyListeners(listeners);
-        }
-
-        public synchronized void replaceAllWith(S t) {
-            clear();
-            IndexedQueue<S> q = getValues();
-            if (q.size() > 0) {
-                removals.addAll(q.list());
-                q.clear();
-            }
-            q.add(t);
-            
-            List<LookupListener> listeners = getListeners();
-            if (listeners == null) return;
-            additions.add(t);
-            notifyListeners(listeners);
+        public void removeAll(Collection<S> list) {
+            List<S> requested = new ArrayList<S>(list);
+            Store<S> store = getStore(c);
+            synchronized (store) {
+                // Only the items which were held are reported as removed.
+                List<S> removals = new ArrayList<S>(requested.size());
+                for (S s : requested) {
+                    if (store.queue.remove(s)) removals.add(s);
+                }
+                if (removals.isEmpty()) return;
+                update(store, Collections.unmodifiableList(removals), Collections.<S>emptyList());
+            }
+            awaitDelivery(store);
         }
 
-        public synchronized void replaceAllWith(Collection<S> list) {
-            clear();
-            IndexedQueue<S> q = getValues();
-            if (q.size() > 0) {
-                removals.addAll(q.list());
-                q.clear();
+        public void replaceAllWith(S t) {
+            Store<S> store = getStore(c);
+            synchronized (store) {
+                List<S> removals = store.queue.size() > 0 ? store.snapshot() : Collections.<S>emptyList();
+                store.queue.clear();
+                dropProviders(store);
+                store.queue.add(t);
+                List<S> additions = Collections.singletonList(t);
+                journal(store, true, Collections.<S>emptyList(), additions);
+                publish(store, removals, additions);
             }
-            for (S s : list) {
-                q.add(s);
+            awaitDelivery(store);
+        }
+
+        public void replaceAllWith(Collection<S> list) {
+            List<S> additions = Collections.unmodifiableList(new ArrayList<S>(list));
+            Store<S> store = getStore(c);
+            synchronized (store) {
+                List<S> removals = store.queue.size() > 0 ? store.snapshot() : Collections.<S>emptyList();
+                store.queue.clear();
+                dropProviders(store);
+                for (S s : additions) {
+                    store.queue.add(s);
+                }
+                journal(store, true, Collections.<S>emptyList(), additions);
+                publish(store, removals, additions);
             }
-            additions.addAll(list);
-            List<LookupListener> listeners = getListeners();
-            if (listeners == null) return;
-            notifyListeners(listeners);
+            awaitDelivery(store);
         }
 
         /**
-         * Returns a IndexedQueue for this View, creating one if there is not
-         * one already.
+         * Starts a new Transaction for this View. The Transaction may also
+         * include changes to other classes through {@link Transaction#batch()}.
+         *
+         * @return A non null, empty Transaction. Nothing is changed until it
+         * is committed.
          */
-        private IndexedQueue<S> getValues() {
-            IndexedQueue<S> queue = values.get(c);
-            if (queue == null) {
-                queue = new IndexedQueue<S>();
-                values.put(c, queue);
-            }
-            return queue;
+        public Transaction<S> transaction() {
+            return new Transaction<S>(batch(), c);
         }
 
         /**
-         * Get the Listener associated for this View.
-         * Check all super classes for further interested listeners
+         * Orders the items stored under this View's class by the Comparator.
+         * From then on each add and remove keeps the items sorted, and lists
+         * of the class follow that order. Items which compare equal are kept
+         * in the order they were added. Calling this again replaces the order.
+         *
+         * @param comparator Orders the items. May not be null.
+         *
+         * @return A non null OrderedView for ordered and range queries.
          */
-        private List<LookupListener> getListeners() {
-            // Lazy initialise return value
-            List<LookupListener> r = null;
-            Class search = c;
-            while (search != null) {
-                List<LookupListener> l = listenerMap.get(search);
-                if (l != null) {
-                    if (r == null) r = new LinkedList<LookupListener>();
-                    r.addAll(l);
-                }
-                search = search.getSuperclass();
-            }
-            return r;
+        public OrderedView<S> ordered(Comparator<? super S> comparator) {
+            if (comparator == null) throw new IllegalArgumentException("comparator");
+            return order(comparator);
         }
 
-        // Signal all listeners for this View
-        private void notifyListeners(List<LookupListener> listeners) {
-            if (listeners == null) throw new IllegalArgumentException();
-            for (LookupListener l : listeners) {
-                // Basic mode
-                if (l instanceof LookupBasicListener) {
-                    LookupBasicListener basic = (LookupBasicListener) l;
-                    basic.resultChanged(getValues().list());
-                } else if (l instanceof LookupDeltaListener) {
-                    LookupDeltaListener delta = (LookupDeltaListener) l;
-                    if (!removals.isEmpty()) {
-                    	delta.resultRemoved(removals);
-                    }
-                    if (!additions.isEmpty()) {
-                    	delta.resultAdded(additions);
+        /**
+         * Orders the items stored under this View's class by the order in
+         * which they were added, as {@link #ordered(Comparator)}. Items
+         * already stored keep their current order.
+         *
+         * @return A non null OrderedView for ordered queries.
+         */
+        public OrderedView<S> ordered() {
+            return order(null);
+        }
+
+        private OrderedView<S> order(Comparator<? super S> comparator) {
+            Store<S> store = getStore(c);
+            synchronized (store) {
+                IndexedQueue<S> queue = store.queue;
+                if (!(queue instanceof SortedQueue) || ((SortedQueue<S>) queue).comparator() != comparator) {
+                    SortedQueue<S> sorted = new SortedQueue<S>(comparator);
+                    for (S s : queue.list()) {
+                        sorted.add(s);
                     }
-                } else {
-                    throw new IllegalStateException();
+                    store.queue = sorted;
+                    // Nothing was added or removed, but the order has changed.
+                    changed(store, Collections.emptyList(), Collections.emptyList());
                 }
             }
+            return new OrderedView<S>(store);
+        }
+
+        /**
+         * Returns the items of this View which match the predicate, kept up
+         * to date as the Lookup changes.
+         *
+         * @param predicate Selects the items. It is applied to each item as it
+         * is added or removed, so must give the same answer for an item
+         * while it is in the Lookup. May not be null.
+         *
+         * @return A new FilteredView, which should be closed when no longer
+         * needed.
+         */
+        public FilteredView<S> where(Predicate<? super S> predicate) {
+            if (predicate == null) throw new IllegalArgumentException("predicate");
+            return new FilteredView<S>(Lookup.this, c, predicate);
+        }
+
+        /**
+         * Returns an index of the items of this View by a key derived from
+         * each item, kept up to date as the Lookup changes.
+         *
+         * @param keyOf Derives the key of an item, which may be null. The key
+         * of an item must not change while it is in the Lookup. May not be
+         * null.
+         *
+         * @return A new KeyIndex, which should be closed when no longer
+         * needed.
+         */
+        public <K> KeyIndex<K, S> indexBy(Function<? super S, ? extends K> keyOf) {
+            if (keyOf == null) throw new IllegalArgumentException("keyOf");
+            return new KeyIndex<K, S>(Lookup.this, c, keyOf);
+        }
+
+        /**
+         * Returns a Publisher of the changes to this View, as
+         * {@link #publisher(boolean)} with no initial snapshot.
+         *
+         * @return A non null Publisher.
+         */
+        public Flow.Publisher<LookupEvent<S>> publisher() {
+            return publisher(false);
+        }
+
+        /**
+         * Returns a Publisher of the changes to this View. Each subscriber
+         * only receives the events it has requested. While a subscriber has
+         * no outstanding demand its changes are merged into one pending event,
+         * so a slow subscriber receives fewer, larger events rather than
+         * causing changes to be buffered without limit.
+         *
+         * @param initialSnapshot If true, the first event to each subscriber
+         * holds the contents of the View when it subscribed, with any
+         * changes made before it is delivered merged in.
+         *
+         * @return A non null Publisher.
+         */
+        public Flow.Publisher<LookupEvent<S>> publisher(boolean initialSnapshot) {
+            return new LookupPublisher<S>(Lookup.this, c, initialSnapshot);
         }
 
-        // Clears delta changes
-        private void clear() {
-            additions.clear();
-            removals.clear();
+        /**
+         * Returns the live ResultHandle for this View's class. The same handle
+         * is shared by every View of the class in this Lookup.
+         *
+         * @return A non null ResultHandle.
+         */
+        public ResultHandle<S> handle() {
+            return getResult(c);
         }
 
         /**
@@ -261,32 +1360,22 @@ public class Lookup {
          * any assignable sub-type that has been stored in the Lookup.
          *
          * @return Typed list of zero or more elements. This is an unmodifiable
-         * list. Changes to the Lookup must be performed via the View accessor
+         * snapshot, later changes to the Lookup are not reflected in it.
+         * Changes to the Lookup must be performed via the View accessor
          * methods.
          */
-        public synchronized Collection<S> list() {
-            Collection<S> r = new LinkedList<S>();
-            // The assumption on this search is that the different types of
-            // class stored will generally be low vs the data for each type.
-            for (Class k : values.keySet()) {
-                if (c.isAssignableFrom(k)) {
-                    r.addAll(values.get(k).list());
-                }
-            }
-            return Collections.unmodifiableCollection(r);
+        public Collection<S> list() {
+            return getResult(c).list();
         }
 
         /**
          * Returns the first object from the Lookup that is part of this View.
+         * The same object is returned until it is removed.
+         *
          * @return Null if the view does not contain any entries.
          */
-        public synchronized S first() {
-            for (Class k : values.keySet()) {
-                if (c.isAssignableFrom(k)) {
-                    return (S) values.get(k).list().get(0);
-                }
-            }
-            return null;
+        public S first() {
+            return getResult(c).first();
         }
 
         /**
@@ -296,14 +1385,8 @@ public class Lookup {
          * @returns Zero or greater count of all entries in this View. This
          * will be equal to view.list().size().
          */
-        public synchronized int size() {
-            int total = 0;
-            for (Class k : values.keySet()) {
-                if (c.isAssignableFrom(k)) {
-                    total += values.get(k).size();
-                }
-            }
-            return total;
+        public int size() {
+            return getResult(c).size();
         }
 
         /**
@@ -312,8 +1395,8 @@ public class Lookup {
          * @return True if the Lookup has no entries for this View. False if
          * there is something stored.
          */
-        public synchronized boolean isEmpty() {
-            return size() == 0;
+        public boolean isEmpty() {
+            return getResult(c).isEmpty();
         }
     }
 
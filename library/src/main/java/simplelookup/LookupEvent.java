@@ -0,0 +1,48 @@
+package simplelookup;
+
+import java.util.List;
+
+/**
+ * A change to a View, as published by {@link Lookup.View#publisher()}. Either
+ * the items removed and added by one or more changes, or the initial contents
+ * of the View.
+ */
+public final class LookupEvent<T> {
+    private final List<T> removed;
+    private final List<T> added;
+    private final boolean snapshot;
+
+    LookupEvent(List<T> removed, List<T> added, boolean snapshot) {
+        this.removed = removed;
+        this.added = added;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @return Unmodifiable list of the items removed, empty for a snapshot.
+     */
+    public List<T> removed() {
+        return removed;
+    }
+
+    /**
+     * @return Unmodifiable list of the items added, or of the contents for a
+     * snapshot.
+     */
+    public List<T> added() {
+        return added;
+    }
+
+    /**
+     * @return True if this event holds the contents of the View when the
+     * subscription started, with any changes made since merged in.
+     */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return snapshot ? "Snapshot" + added : "-" + removed + " +" + added;
+    }
+}
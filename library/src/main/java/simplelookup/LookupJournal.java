@@ -0,0 +1,457 @@
+package simplelookup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * An append only record of the changes made to a Lookup, so that its
+ * contents can be recovered after a crash by restoring a
+ * {@link LookupSnapshot} and replaying the journal on top of it. Only the
+ * classes with a codec in the LookupSnapshot are recorded.
+ *
+ * A change only costs the mutating thread a sequence number and a place on a
+ * queue. A background thread writes everything queued, and syncs it to disk,
+ * once per interval, so a crash loses at most the last interval of changes.
+ * Each record carries a checksum, and a record only partly written when the
+ * process stopped is discarded when the journal is next opened.
+ *
+ * Every change is numbered, and each class in a snapshot carries the number
+ * of the last change it includes, so replaying skips changes the snapshot
+ * already holds. {@link #checkpoint(Path)} writes a new snapshot and then
+ * drops those changes from the journal.
+ *
+ * <pre>
+ * Lookup lookup = new Lookup();
+ * if (Files.exists(snapshotFile)) snapshot.restore(lookup, snapshotFile);
+ * LookupJournal journal = new LookupJournal(journalFile, snapshot, 100, TimeUnit.MILLISECONDS);
+ * journal.attach(lookup);
+ * </pre>
+ */
+public final class LookupJournal implements Closeable {
+    private static final int MAGIC = 0x534C4A4E;
+    private static final int VERSION = 1;
+    // Magic, version and base sequence
+    private static final int HEADER = 16;
+
+    private final Path file;
+    private final LookupSnapshot snapshot;
+    private final long interval;
+    private final Queue<Record> queue = new ConcurrentLinkedQueue<Record>();
+    private final AtomicLong sequence = new AtomicLong();
+    // Records added to the queue
+    private final AtomicLong enqueued = new AtomicLong();
+    // Records the writer has finished with, guarded by this
+    private long done;
+    private final Thread writer;
+    // Guards the channel, which is replaced by a checkpoint
+    private final Object fileLock = new Object();
+    private FileChannel channel;
+    private volatile Lookup lookup;
+    private volatile boolean closed;
+    // The first failure to write, after which nothing more is written
+    private volatile Throwable failure;
+
+    /**
+     * Opens the journal, creating the file if it does not exist. Nothing is
+     * recorded until the journal is attached to a Lookup.
+     *
+     * @param file Journal file. May not be null.
+     * @param snapshot Gives the classes to record and their codecs. May not
+     * be null.
+     * @param interval Time between writes to the file. Must be positive.
+     * @param unit Unit of the interval. May not be null.
+     *
+     * @throws IOException If the file could not be opened, or is not a
+     * journal.
+     */
+    public LookupJournal(Path file, LookupSnapshot snapshot, long interval, TimeUnit unit) throws IOException {
+        if (file == null) throw new IllegalArgumentException("file");
+        if (snapshot == null) throw new IllegalArgumentException("snapshot");
+        if (interval <= 0) throw new IllegalArgumentException("interval");
+        if (unit == null) throw new IllegalArgumentException("unit");
+        this.file = file;
+        this.snapshot = snapshot;
+        this.interval = unit.toNanos(interval);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                writeHeader(channel, 0);
+                channel.force(true);
+            }
+            long end = HEADER;
+            long last = readHeader(channel);
+            for (byte[] body : records(channel)) {
+                end += body.length + 8;
+                last = Math.max(last, sequenceOf(body));
+            }
+            // Drop anything after the last whole record.
+            channel.truncate(end);
+            channel.position(end);
+            sequence.set(last);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                write();
+            }
+        }, "LookupJournal " + file.getFileName());
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Replays the journal into the Lookup, then records each change made to
+     * it from then on. Changes already held by the Lookup, because they were
+     * restored from a snapshot which includes them, are skipped. The Lookup
+     * should not be changed by other threads until this returns.
+     *
+     * Only the classes with changes to replay are materialized. A class
+     * restored from a snapshot with no later changes stays undecoded until
+     * it is first queried.
+     *
+     * @param lookup Lookup to recover and record. May not be null.
+     *
+     * @return Number of changes replayed.
+     *
+     * @throws IOException If the journal could not be read.
+     * @throws IllegalStateException If this journal is already attached, or
+     * the Lookup already has a journal.
+     */
+    public synchronized int attach(Lookup lookup) throws IOException {
+        if (lookup == null) throw new IllegalArgumentException("lookup");
+        if (this.lookup != null) throw new IllegalStateException("Journal is already attached");
+        if (closed) throw new IllegalStateException("Journal is closed");
+        int replayed = 0;
+        List<byte[]> bodies;
+        synchronized (fileLock) {
+            bodies = records(channel);
+        }
+        for (byte[] body : bodies) {
+            if (replay(lookup, body)) replayed++;
+        }
+        // A snapshot may be newer than the journal, if the journal was lost.
+        long restored = lookup.sequence();
+        if (restored > sequence.get()) sequence.set(restored);
+        lookup.setJournal(this);
+        this.lookup = lookup;
+        writer.start();
+        return replayed;
+    }
+
+    /**
+     * Queues a change to the Store for the writer. Called with the Store lock
+     * held, so the changes to each class are numbered in the order they were
+     * made.
+     */
+    <T> void record(Store<T> store, boolean replaced, List<T> removals, List<T> additions) {
+        if (closed) return;
+        Codec<T> codec = snapshot.codec(store.type);
+        if (codec == null) return;
+        long s = sequence.incrementAndGet();
+        store.sequence = s;
+        queue.add(new Record(s, store.type, codec, replaced, removals, additions));
+        enqueued.incrementAndGet();
+    }
+
+    /**
+     * Waits until every change recorded before the call has been written and
+     * synced to disk.
+     *
+     * @throws IOException If the journal failed to write.
+     */
+    public void sync() throws IOException {
+        long target = enqueued.get();
+        LockSupport.unpark(writer);
+        synchronized (this) {
+            while (done < target && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for the journal", e);
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Writes a snapshot of the attached Lookup, then drops the changes it
+     * includes from the journal. The journal then only holds changes made
+     * while the snapshot was written, or later.
+     *
+     * @param snapshotFile File to write the snapshot to. May not be null.
+     *
+     * @throws IOException If the snapshot or the journal could not be
+     * written.
+     * @throws IllegalStateException If the journal is not attached.
+     */
+    public void checkpoint(Path snapshotFile) throws IOException {
+        if (snapshotFile == null) throw new IllegalArgumentException("snapshotFile");
+        Lookup lookup = this.lookup;
+        if (lookup == null) throw new IllegalStateException("Journal is not attached");
+        // Every change numbered up to here is complete, so the snapshot of
+        // its class, which is taken afterwards, includes it.
+        long mark = sequence.get();
+        snapshot.write(lookup, snapshotFile);
+        checkFailure();
+        synchronized (fileLock) {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            FileChannel compacted = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                writeHeader(compacted, mark);
+                for (byte[] body : records(channel)) {
+                    if (sequenceOf(body) > mark) {
+                        append(compacted, body);
+                    }
+                }
+                compacted.force(true);
+            } catch (IOException e) {
+                compacted.close();
+                throw e;
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel.close();
+            channel = compacted;
+        }
+    }
+
+    /**
+     * Stops recording changes, writes and syncs any already recorded, and
+     * closes the file.
+     *
+     * @throws IOException If the journal failed to write.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        Lookup lookup = this.lookup;
+        if (lookup != null) {
+            lookup.setJournal(null);
+            LockSupport.unpark(writer);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (fileLock) {
+            channel.close();
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t != null) throw new IOException("Journal failed to write " + file, t);
+    }
+
+    // Group commit: everything queued is written at once, then synced.
+    private void write() {
+        List<Record> batch = new ArrayList<Record>();
+        while (true) {
+            // Read before draining, so nothing queued before close is missed.
+            boolean stopping = closed;
+            Record r;
+            while ((r = queue.poll()) != null) {
+                batch.add(r);
+            }
+            if (!batch.isEmpty() && failure == null) {
+                try {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    for (Record record : batch) {
+                        bytes.write(frame(record.encode()));
+                    }
+                    synchronized (fileLock) {
+                        write(channel, bytes.toByteArray());
+                        channel.force(false);
+                    }
+                } catch (Throwable t) {
+                    failure = t;
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+                }
+            }
+            synchronized (this) {
+                done += batch.size();
+                notifyAll();
+            }
+            batch.clear();
+            if (stopping) return;
+            LockSupport.parkNanos(this, interval);
+        }
+    }
+
+    private boolean replay(Lookup lookup, byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        long s = in.readLong();
+        String name = in.readUTF();
+        Class c = snapshot.type(name);
+        // The class is no longer recorded, so its changes are ignored.
+        if (c == null) return false;
+        return replay(lookup, c, s, in);
+    }
+
+    private <T> boolean replay(Lookup lookup, Class<T> c, long s, DataInputStream in) throws IOException {
+        Codec<T> codec = snapshot.codec(c);
+        boolean replaced = in.readBoolean();
+        List<T> removals = readItems(c, codec, in);
+        List<T> additions = readItems(c, codec, in);
+        return lookup.replay(c, s, replaced, removals, additions);
+    }
+
+    private static <T> List<T> readItems(Class<T> c, Codec<T> codec, DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<T> items = new ArrayList<T>(count);
+        for (int ii = 0; ii < count; ii++) {
+            items.add(in.readBoolean() ? c.cast(codec.decode(in)) : null);
+        }
+        return Collections.unmodifiableList(items);
+    }
+
+    // Reads the body of every whole record after the header, stopping at the
+    // first which is incomplete or fails its checksum.
+    private static List<byte[]> records(FileChannel channel) throws IOException {
+        List<byte[]> r = new ArrayList<byte[]>();
+        long position = HEADER;
+        long size = channel.size();
+        ByteBuffer length = ByteBuffer.allocate(4);
+        while (position + 4 <= size) {
+            length.clear();
+            read(channel, length, position);
+            int n = length.getInt(0);
+            if (n < 0 || position + 8 + n > size) break;
+            ByteBuffer frame = ByteBuffer.allocate(n + 4);
+            read(channel, frame, position + 4);
+            byte[] body = new byte[n];
+            frame.flip();
+            frame.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != frame.getInt()) break;
+            r.add(body);
+            position += 8 + n;
+        }
+        return r;
+    }
+
+    private static long sequenceOf(byte[] body) {
+        return ByteBuffer.wrap(body).getLong();
+    }
+
+    // Length, body and checksum of a record.
+    private static byte[] frame(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer frame = ByteBuffer.allocate(body.length + 8);
+        frame.putInt(body.length);
+        frame.put(body);
+        frame.putInt((int) crc.getValue());
+        return frame.array();
+    }
+
+    private static void append(FileChannel channel, byte[] body) throws IOException {
+        write(channel, frame(body));
+    }
+
+    private static void writeHeader(FileChannel channel, long base) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putLong(base);
+        header.flip();
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    // Returns the sequence the journal starts from.
+    private static long readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        if (channel.size() < HEADER) throw new IOException("Not a Lookup journal");
+        read(channel, header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) throw new IOException("Not a Lookup journal");
+        int version = header.getInt();
+        if (version != VERSION) throw new IOException("Unsupported journal version " + version);
+        return header.getLong();
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Unexpected end of journal");
+        }
+    }
+
+    private static void write(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * A change to one class, encoded by the writer.
+     */
+    private static final class Record<T> {
+        final long sequence;
+        final Class<T> type;
+        final Codec<T> codec;
+        // True if the additions are the new contents of the class
+        final boolean replaced;
+        final List<T> removals;
+        final List<T> additions;
+
+        Record(long sequence, Class<T> type, Codec<T> codec, boolean replaced, List<T> removals, List<T> additions) {
+            this.sequence = sequence;
+            this.type = type;
+            this.codec = codec;
+            this.replaced = replaced;
+            this.removals = removals;
+            this.additions = additions;
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(sequence);
+            out.writeUTF(type.getName());
+            out.writeBoolean(replaced);
+            writeItems(removals, out);
+            writeItems(additions, out);
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private void writeItems(List<T> items, DataOutputStream out) throws IOException {
+            out.writeInt(items.size());
+            for (T t : items) {
+                out.writeBoolean(t != null);
+                if (t != null) codec.encode(t, out);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package simplelookup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes the changes to a View to any number of subscribers. Each
+ * subscription registers its own listener with the Lookup and is cancelled by
+ * closing that registration.
+ *
+ * A subscriber only receives events it has requested. Changes made while it
+ * has no outstanding demand are merged into a single pending event, in which
+ * an item added and then removed cancels out, rather than queued one by one.
+ *
+ * Events are delivered on the thread which made the change, or the thread
+ * which requested more, whichever finds an event and demand available.
+ */
+final class LookupPublisher<T> implements Flow.Publisher<LookupEvent<T>> {
+    private final Lookup lookup;
+    private final Class<T> type;
+    private final boolean initialSnapshot;
+
+    LookupPublisher(Lookup lookup, Class<T> type, boolean initialSnapshot) {
+        this.lookup = lookup;
+        this.type = type;
+        this.initialSnapshot = initialSnapshot;
+    }
+
+    public void subscribe(Flow.Subscriber<? super LookupEvent<T>> subscriber) {
+        if (subscriber == null) throw new NullPointerException("subscriber");
+        Subscription<T> subscription = new Subscription<T>(subscriber, initialSnapshot);
+        if (initialSnapshot) {
+            List<T> contents = new ArrayList<T>();
+            subscription.registration = lookup.subscribe(type, subscription, contents);
+            subscription.snapshot(contents);
+        } else {
+            subscription.registration = lookup.register(type, subscription);
+        }
+        subscriber.onSubscribe(subscription);
+    }
+
+    private static class Subscription<T> implements Flow.Subscription, ChangeListener<T> {
+        private final Flow.Subscriber<? super LookupEvent<T>> subscriber;
+        // Guards the signals to the subscriber, only the thread which moves
+        // it from zero may deliver.
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile Registration registration;
+        private volatile boolean cancelled;
+
+        // Guarded by this
+        private long demand;
+        private List<T> removals = new ArrayList<T>();
+        private List<T> additions = new ArrayList<T>();
+        private boolean snapshot;
+        // True until the initial contents have been merged. Changes which
+        // arrive after the listener is registered, but before the contents
+        // are handed over, are held until then.
+        private boolean initializing;
+
+        Subscription(Flow.Subscriber<? super LookupEvent<T>> subscriber, boolean initializing) {
+            this.subscriber = subscriber;
+            this.initializing = initializing;
+        }
+
+        /**
+         * Makes the pending event a snapshot of the contents, followed by any
+         * changes received since they were read.
+         */
+        synchronized void snapshot(List<T> contents) {
+            List<T> merged = new ArrayList<T>(contents);
+            merged.addAll(additions);
+            Event.cancel(merged, removals);
+            additions = merged;
+            removals = new ArrayList<T>();
+            snapshot = true;
+            initializing = false;
+        }
+
+        public void changed(List<T> removed, List<T> added) {
+            synchronized (this) {
+                if (cancelled) return;
+                List<T> remaining = new ArrayList<T>(removed);
+                Event.cancel(additions, remaining);
+                if (!snapshot) removals.addAll(remaining);
+                additions.addAll(added);
+            }
+            drain();
+        }
+
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Request must be positive, was " + n));
+                return;
+            }
+            synchronized (this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            drain();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            Registration r = registration;
+            if (r != null) r.close();
+            synchronized (this) {
+                removals = new ArrayList<T>();
+                additions = new ArrayList<T>();
+            }
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) return;
+            do {
+                while (true) {
+                    LookupEvent<T> event;
+                    synchronized (this) {
+                        if (cancelled || demand == 0 || initializing) break;
+                        if (!snapshot && removals.isEmpty() && additions.isEmpty()) break;
+                        event = new LookupEvent<T>(
+                                Collections.unmodifiableList(removals),
+                                Collections.unmodifiableList(additions),
+                                snapshot);
+                        removals = new ArrayList<T>();
+                        additions = new ArrayList<T>();
+                        snapshot = false;
+                        demand--;
+                    }
+                    try {
+                        subscriber.onNext(event);
+                    } catch (RuntimeException e) {
+                        // The subscriber is broken, so stop publishing to it.
+                        cancel();
+                        throw e;
+                    }
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package simplelookup;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Registers a class to be added to a Lookup loaded with
+ * {@link Lookup#fromIndex(ClassLoader)}. The annotation processor in the
+ * processor module records each annotated class in an index at build time,
+ * so no classes need to be scanned or loaded to find them.
+ *
+ * The class must be public, not abstract, and have a public no argument
+ * constructor. It is only instantiated when a View including it is queried.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface LookupService {
+    /**
+     * Resource holding the index, one per jar or output directory.
+     *
+     * Each line is the binary name of a service class followed by the binary
+     * names of the classes registered under it, separated by spaces.
+     */
+    String INDEX = "META-INF/simplelookup/index";
+
+    /**
+     * @return The classes to add the instance to the Lookup under. Defaults
+     * to the annotated class itself. The instance is only added once: under
+     * the listed class which is assignable to all of the others, or if there
+     * is none, under the annotated class, which Views of every listed class
+     * include.
+     */
+    Class<?>[] value() default {};
+}
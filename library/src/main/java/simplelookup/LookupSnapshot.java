@@ -0,0 +1,295 @@
+package simplelookup;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Saves the contents of a Lookup to a file, and restores them. Only the
+ * classes given a {@link Codec} are saved or restored.
+ *
+ * The file starts with a directory of the classes it holds, followed by a
+ * section for each class. A section records each distinct item once, with the
+ * number of times it is held. On restore each section is mapped into memory,
+ * but nothing is decoded until a View which includes the class is first
+ * queried, in the same way as a provider.
+ *
+ * Each class is read under its own lock, so a snapshot of a Lookup which is
+ * being changed is consistent for each class but not across classes. The
+ * snapshot also records, for each class, the last change recorded in a
+ * {@link LookupJournal}, so that the journal can be replayed on top of it.
+ */
+public final class LookupSnapshot {
+    private static final int MAGIC = 0x534C4B50;
+    private static final int VERSION = 2;
+
+    // Keyed by class name, as the classes are named in the file.
+    private final Map<String, Class<?>> classes = new LinkedHashMap<String, Class<?>>();
+    private final Map<String, Codec<?>> codecs = new LinkedHashMap<String, Codec<?>>();
+
+    /**
+     * Includes a class in the snapshot. Items held under subclasses of the
+     * class are not included, they need codecs of their own.
+     *
+     * @param c Class to save and restore. May not be null.
+     * @param codec Converts the items of the class. May not be null.
+     *
+     * @return This LookupSnapshot.
+     */
+    public <T> LookupSnapshot codec(Class<T> c, Codec<T> codec) {
+        if (c == null) throw new IllegalArgumentException("c");
+        if (codec == null) throw new IllegalArgumentException("codec");
+        classes.put(c.getName(), c);
+        codecs.put(c.getName(), codec);
+        return this;
+    }
+
+    /**
+     * Writes the contents of each class with a codec to the file. Any
+     * providers waiting in those classes are constructed first. The file is
+     * written alongside and then moved into place, so an existing snapshot is
+     * only replaced once the new one is complete.
+     *
+     * @param lookup Lookup to save. May not be null.
+     * @param file File to write. May not be null.
+     *
+     * @return Number of classes written.
+     *
+     * @throws IOException If the file could not be written, or a codec failed.
+     */
+    public int write(Lookup lookup, Path file) throws IOException {
+        if (lookup == null) throw new IllegalArgumentException("lookup");
+        if (file == null) throw new IllegalArgumentException("file");
+        List<String> names = new ArrayList<String>();
+        List<Integer> totals = new ArrayList<Integer>();
+        List<Long> sequences = new ArrayList<Long>();
+        List<byte[]> sections = new ArrayList<byte[]>();
+        for (String name : classes.keySet()) {
+            Class c = classes.get(name);
+            lookup.materialize(c);
+            Store store = lookup.store(c);
+            if (store == null) continue;
+            List<Object> items = new ArrayList<Object>();
+            List<Integer> counts = new ArrayList<Integer>();
+            long[] state = runs(store, items, counts);
+            names.add(name);
+            totals.add((int) state[0]);
+            sequences.add(state[1]);
+            sections.add(encode(codecs.get(name), items, counts));
+        }
+
+        // The directory is the same size whatever the offsets, so write it
+        // once to measure it and again with the offsets of the sections.
+        byte[] directory = directory(names, totals, sequences, sections, 0);
+        directory = directory(names, totals, sequences, sections, directory.length);
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            write(channel, directory);
+            for (byte[] section : sections) {
+                write(channel, section);
+            }
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return names.size();
+    }
+
+    /**
+     * Restores each class in the file which has a codec. The items are
+     * decoded when a View which includes their class is first queried, and
+     * are then added to any items the Lookup already holds, in a single
+     * notification. Classes without a codec are skipped.
+     *
+     * @param lookup Lookup to restore into. May not be null.
+     * @param file A file written by {@link #write(Lookup, Path)}. May not be
+     * null.
+     *
+     * @return Number of classes restored.
+     *
+     * @throws IOException If the file could not be read, or is not a
+     * snapshot.
+     */
+    public int restore(Lookup lookup, Path file) throws IOException {
+        if (lookup == null) throw new IllegalArgumentException("lookup");
+        if (file == null) throw new IllegalArgumentException("file");
+        int restored = 0;
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            if (in.readInt() != MAGIC) throw new IOException("Not a Lookup snapshot: " + file);
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported snapshot version " + version + ": " + file);
+            int count = in.readInt();
+            for (int ii = 0; ii < count; ii++) {
+                String name = in.readUTF();
+                int total = in.readInt();
+                long sequence = in.readLong();
+                long offset = in.readLong();
+                long length = in.readLong();
+                if (offset < 0 || length < 0 || offset + length > channel.size()) {
+                    throw new IOException("Corrupt snapshot, section for " + name + " is out of bounds: " + file);
+                }
+                Class c = classes.get(name);
+                if (c == null) continue;
+                // The mapping remains valid after the channel is closed.
+                ByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                lookup.restore(c, sequence, decoder(c, codecs.get(name), section, total));
+                restored++;
+            }
+        } finally {
+            channel.close();
+        }
+        return restored;
+    }
+
+    /**
+     * @return The codec for the class, or null if it has none.
+     */
+    @SuppressWarnings("unchecked")
+    <T> Codec<T> codec(Class<T> c) {
+        return classes.get(c.getName()) == c ? (Codec<T>) codecs.get(c.getName()) : null;
+    }
+
+    /**
+     * @return The class with a codec of the given name, or null if there is
+     * none.
+     */
+    Class<?> type(String name) {
+        return classes.get(name);
+    }
+
+    // Copies the distinct items of a Store and their counts, in the order
+    // they are listed. Returns the number of items and the Store's journal
+    // sequence.
+    private static <T> long[] runs(Store<T> store, List<Object> items, List<Integer> counts) {
+        synchronized (store) {
+            IndexedQueue<T> queue = store.queue;
+            if (queue instanceof SortedQueue) {
+                // Ordered by position rather than distinct item, so record
+                // each run of the same item.
+                for (T t : queue.list()) {
+                    int last = items.size() - 1;
+                    if (last >= 0 && Objects.equals(items.get(last), t)) {
+                        counts.set(last, counts.get(last) + 1);
+                    } else {
+                        items.add(t);
+                        counts.add(1);
+                    }
+                }
+            } else {
+                for (int ii = 0; ii < queue.distinct(); ii++) {
+                    items.add(queue.element(ii));
+                    counts.add(queue.count(ii));
+                }
+            }
+            return new long[] {queue.size(), store.sequence};
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static byte[] encode(Codec codec, List<Object> items, List<Integer> counts) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(items.size());
+        for (int ii = 0; ii < items.size(); ii++) {
+            Object item = items.get(ii);
+            out.writeInt(counts.get(ii));
+            out.writeBoolean(item != null);
+            if (item != null) codec.encode(item, out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] directory(List<String> names, List<Integer> totals, List<Long> sequences, List<byte[]> sections, long start) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(names.size());
+        long offset = start;
+        for (int ii = 0; ii < names.size(); ii++) {
+            out.writeUTF(names.get(ii));
+            out.writeInt(totals.get(ii));
+            out.writeLong(sequences.get(ii));
+            out.writeLong(offset);
+            out.writeLong(sections.get(ii).length);
+            offset += sections.get(ii).length;
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void write(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Decodes a section when it is first needed. Each call reads the section
+    // from the start, so a failed decode can be retried.
+    private static <T> Supplier<List<T>> decoder(final Class<T> c, final Codec<T> codec, final ByteBuffer section, final int total) {
+        return new Supplier<List<T>>() {
+            public List<T> get() {
+                DataInputStream in = new DataInputStream(new BufferInput(section.duplicate()));
+                List<T> items = new ArrayList<T>(total);
+                try {
+                    int distinct = in.readInt();
+                    for (int ii = 0; ii < distinct; ii++) {
+                        int count = in.readInt();
+                        T t = in.readBoolean() ? c.cast(codec.decode(in)) : null;
+                        items.addAll(Collections.nCopies(count, t));
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not decode snapshot of " + c.getName(), e);
+                }
+                return items;
+            }
+        };
+    }
+
+    private static class BufferInput extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
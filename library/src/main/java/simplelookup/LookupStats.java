@@ -0,0 +1,124 @@
+package simplelookup;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import simplelookup.listener.LookupListener;
+
+/**
+ * Statistics collected by a Lookup, per class, once enabled with
+ * {@link Lookup#enableStats()}. While disabled the Lookup does not collect
+ * anything.
+ *
+ * The statistics for each class may also be published as JMX MBeans with
+ * {@link #registerMBeans(String)}, named
+ * {@code simplelookup:type=Lookup,name=<name>,class=<class name>}.
+ */
+public final class LookupStats {
+    private final Lookup lookup;
+    private final Map<Class, ClassStats> classes = new ConcurrentHashMap<Class, ClassStats>();
+    // Name the MBeans are registered under, null if they are not. Guarded by
+    // this
+    private String name;
+
+    LookupStats(Lookup lookup) {
+        this.lookup = lookup;
+    }
+
+    /**
+     * @return The classes which have statistics.
+     */
+    public Set<Class> classes() {
+        return Collections.unmodifiableSet(classes.keySet());
+    }
+
+    /**
+     * @return The statistics for the given class. May not be null.
+     */
+    public ClassStats of(Class c) {
+        if (c == null) throw new IllegalArgumentException("c");
+        ClassStats r = classes.get(c);
+        if (r == null) {
+            ClassStats created = new ClassStats(lookup, c);
+            r = classes.putIfAbsent(c, created);
+            if (r == null) {
+                r = created;
+                register(created);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Publishes the statistics for every class, now and in future, to the
+     * platform MBeanServer.
+     *
+     * @param name Distinguishes this Lookup from others in the same process.
+     * May not be null.
+     *
+     * @throws IllegalStateException If the MBeans are already registered, or
+     * could not be registered.
+     */
+    public synchronized void registerMBeans(String name) {
+        if (name == null) throw new IllegalArgumentException("name");
+        if (this.name != null) throw new IllegalStateException("Already registered as " + this.name);
+        this.name = name;
+        for (ClassStats s : classes.values()) {
+            register(s);
+        }
+    }
+
+    /**
+     * Removes the MBeans registered by {@link #registerMBeans(String)}, if
+     * any.
+     */
+    public synchronized void unregisterMBeans() {
+        if (name == null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Class c : classes.keySet()) {
+                ObjectName n = objectName(c);
+                if (server.isRegistered(n)) server.unregisterMBean(n);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            name = null;
+        }
+    }
+
+    private synchronized void register(ClassStats stats) {
+        if (name == null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName n = objectName(stats.type());
+            if (!server.isRegistered(n)) server.registerMBean(stats, n);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ObjectName objectName(Class c) throws JMException {
+        return new ObjectName("simplelookup:type=Lookup,name=" + ObjectName.quote(name)
+                + ",class=" + ObjectName.quote(c.getName()));
+    }
+
+    void mutated(Class type, int removed, int added) {
+        of(type).mutated(removed, added);
+    }
+
+    void delivered(Class type, LookupListener listener, long created, long start, long end) {
+        of(type).delivered(listener, created, start, end);
+    }
+
+    void materialized(Class type, int size) {
+        of(type).materialized(size);
+    }
+}
@@ -0,0 +1,96 @@
+package simplelookup;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Ordered queries on the items stored under a single class, obtained from
+ * {@link Lookup.View#ordered(Comparator)} or {@link Lookup.View#ordered()}.
+ *
+ * Once a class is ordered its items are kept sorted as they are added and
+ * removed, at a cost of O(log n) per change. The queries here, and the lists
+ * of any View of the class, follow that order without sorting on each read.
+ * Items stored under sub-classes are separate, and are not included.
+ *
+ * The queries lock the class for as long as they take, so the cost of a
+ * query is O(log n) plus the number of items returned.
+ */
+public final class OrderedView<T> {
+    private final Store<T> store;
+
+    OrderedView(Store<T> store) {
+        this.store = store;
+    }
+
+    /**
+     * @return The first item in order, or null if there are none.
+     */
+    public T first() {
+        synchronized (store) {
+            return queue().first();
+        }
+    }
+
+    /**
+     * @return The last item in order, or null if there are none.
+     */
+    public T last() {
+        synchronized (store) {
+            return queue().last();
+        }
+    }
+
+    /**
+     * @param k Maximum number of items. May not be negative.
+     *
+     * @return The first k items, in order.
+     */
+    public List<T> first(int k) {
+        if (k < 0) throw new IllegalArgumentException("k");
+        synchronized (store) {
+            return queue().head(k);
+        }
+    }
+
+    /**
+     * @param k Maximum number of items. May not be negative.
+     *
+     * @return The last k items, in reverse order.
+     */
+    public List<T> last(int k) {
+        if (k < 0) throw new IllegalArgumentException("k");
+        synchronized (store) {
+            return queue().tail(k);
+        }
+    }
+
+    /**
+     * @param from Lowest item to include.
+     * @param to Item to stop before.
+     *
+     * @return The items which compare from the first inclusive to the
+     * second exclusive, in order.
+     *
+     * @throws IllegalStateException If the class is ordered by insertion.
+     */
+    public List<T> range(T from, T to) {
+        synchronized (store) {
+            SortedQueue<T> queue = queue();
+            if (queue.comparator() == null) {
+                throw new IllegalStateException("Ordered by insertion");
+            }
+            return queue.range(from, to);
+        }
+    }
+
+    /**
+     * @return All items, in order.
+     */
+    public List<T> list() {
+        return store.snapshot();
+    }
+
+    private SortedQueue<T> queue() {
+        return (SortedQueue<T>) store.queue;
+    }
+}
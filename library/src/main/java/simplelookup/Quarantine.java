@@ -0,0 +1,124 @@
+package simplelookup;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import simplelookup.AsyncDelivery.Backpressure;
+import simplelookup.listener.LookupListener;
+
+/**
+ * Configures a Lookup which notifies listeners on the mutating thread to
+ * move slow listeners off that thread.
+ *
+ * Each listener callback is timed against a budget. A listener which takes
+ * longer than its budget is quarantined: from then on it is notified on the
+ * slow lane Executor, with changes queued for it coalesced while it falls
+ * behind, so it can no longer hold up the thread making changes or the
+ * listeners notified after it. The callback which first exceeds the budget
+ * has already run on the mutating thread, so a listener which blocks
+ * indefinitely on its first slow callback is not helped.
+ *
+ * A listener stays quarantined until it is deregistered.
+ */
+public final class Quarantine {
+    private final long budget;
+    private final AsyncDelivery slowLane;
+    // Listener list entries which have been quarantined
+    private final Set<LookupListener> quarantined = ConcurrentHashMap.newKeySet();
+    // Budgets for individual listeners, which do not keep them reachable
+    private final Map<LookupListener, Long> budgets = Collections.synchronizedMap(new WeakHashMap<LookupListener, Long>());
+    private volatile boolean custom;
+
+    /**
+     * Allows each listener 10 milliseconds per callback, and runs quarantined
+     * listeners on the same threads as the default {@link AsyncDelivery}.
+     */
+    public Quarantine() {
+        this(10, TimeUnit.MILLISECONDS, AsyncDelivery.defaultExecutor());
+    }
+
+    /**
+     * @param budget Longest a listener callback may take before the listener
+     * is quarantined. Must be greater than zero.
+     * @param unit Unit of the budget. May not be null.
+     * @param slowLane Runs the callbacks of quarantined listeners. May not be
+     * null.
+     */
+    public Quarantine(long budget, TimeUnit unit, Executor slowLane) {
+        if (budget < 1) throw new IllegalArgumentException("budget");
+        if (unit == null) throw new IllegalArgumentException("unit");
+        if (slowLane == null) throw new IllegalArgumentException("slowLane");
+        this.budget = unit.toNanos(budget);
+        this.slowLane = new AsyncDelivery(slowLane, 1024, Backpressure.COALESCE);
+    }
+
+    /**
+     * Gives a listener its own budget in place of the default.
+     *
+     * @param listener Listener the budget applies to. May not be null.
+     * @param budget Longest a callback may take before the listener is
+     * quarantined. Must be greater than zero.
+     * @param unit Unit of the budget. May not be null.
+     */
+    public void setBudget(LookupListener listener, long budget, TimeUnit unit) {
+        if (listener == null) throw new IllegalArgumentException("listener");
+        if (budget < 1) throw new IllegalArgumentException("budget");
+        if (unit == null) throw new IllegalArgumentException("unit");
+        budgets.put(listener, unit.toNanos(budget));
+        custom = true;
+    }
+
+    /**
+     * @return True if the listener has exceeded its budget and is notified
+     * on the slow lane.
+     */
+    public boolean isQuarantined(LookupListener listener) {
+        for (LookupListener entry : quarantined) {
+            if (entry.equals(listener) || WeakListener.resolve(entry) == listener) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Notifies a listener of a change, on this thread unless the listener
+     * has been quarantined. The Store lock must be held.
+     *
+     * @param entry Listener list entry for the listener.
+     */
+    void deliver(LookupListener entry, Event event) {
+        if (WeakListener.resolve(entry) instanceof Lookup.Forwarder) {
+            // A child's listeners are each timed as the child notifies them.
+            event.deliverSafely(entry);
+            return;
+        }
+        if (quarantined.contains(entry)) {
+            slowLane.deliver(new LookupListener[]{entry}, event.withContents());
+            return;
+        }
+        long start = System.nanoTime();
+        event.deliverSafely(entry);
+        long elapsed = System.nanoTime() - start;
+        if (elapsed > budget(entry)) {
+            quarantined.add(entry);
+        }
+    }
+
+    /**
+     * Forgets a listener which is no longer registered.
+     */
+    void removed(LookupListener entry) {
+        if (quarantined.remove(entry)) slowLane.removed(entry);
+    }
+
+    private long budget(LookupListener entry) {
+        if (!custom) return budget;
+        LookupListener listener = WeakListener.resolve(entry);
+        Long r = listener == null ? null : budgets.get(listener);
+        return r == null ? budget : r;
+    }
+}
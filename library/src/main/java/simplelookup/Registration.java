@@ -0,0 +1,33 @@
+package simplelookup;
+
+import simplelookup.listener.LookupListener;
+
+/**
+ * A single registration of a listener with a Lookup, returned by
+ * {@link Lookup#register} and {@link Lookup#registerWeak}. Closing it removes
+ * that registration, so it may be used with try-with-resources.
+ *
+ * A Registration does not keep a weakly registered listener reachable.
+ */
+public final class Registration implements AutoCloseable {
+    private final Lookup lookup;
+    private final Class type;
+    // The entry held in the Lookup's listener list
+    final LookupListener entry;
+    // Guarded by the Lookup's monitor
+    boolean closed;
+
+    Registration(Lookup lookup, Class type, LookupListener entry) {
+        this.lookup = lookup;
+        this.type = type;
+        this.entry = entry;
+    }
+
+    /**
+     * Removes this registration. Closing it again, or after a weakly held
+     * listener has been collected, has no effect.
+     */
+    public void close() {
+        lookup.close(this, type);
+    }
+}
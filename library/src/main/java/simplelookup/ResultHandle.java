@@ -0,0 +1,214 @@
+package simplelookup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A live handle on the contents of a View: every item stored under the View's
+ * class or any class assignable to it. There is one handle per class in a
+ * Lookup, obtained from {@link Lookup.View#handle()}.
+ *
+ * The handle keeps a count of its contents and a cached head item, updated as
+ * each change is made to any assignable class, so {@link #size()},
+ * {@link #isEmpty()} and {@link #first()} cost a volatile read. The full list
+ * is built on the first call to {@link #list()} after a change and shared
+ * until the next one.
+ */
+public final class ResultHandle<T> {
+    // Marks the size or head as needing to be worked out from the list.
+    private static final int UNKNOWN = -1;
+    private static final Object STALE = new Object();
+
+    private final Lookup lookup;
+    private final Class<T> type;
+    // The parent Lookup's handle for the same class, or null
+    private final ResultHandle<T> parent;
+
+    // Written with this handle's lock held, after the Store has changed
+    private volatile long version;
+    private volatile int size = UNKNOWN;
+    private volatile Object head = STALE;
+    private volatile Snapshot<T> current;
+    // Last merge of this Lookup's entries with the parent's
+    private volatile Merged<T> merged;
+
+    ResultHandle(Lookup lookup, Class<T> type, ResultHandle<T> parent) {
+        this.lookup = lookup;
+        this.type = type;
+        this.parent = parent;
+    }
+
+    /**
+     * @return The class of the View this handle follows.
+     */
+    public Class<T> type() {
+        return type;
+    }
+
+    /**
+     * @return Zero or greater count of all entries, equal to list().size().
+     */
+    public int size() {
+        lookup.materialize(type);
+        int r = localSize();
+        return parent == null ? r : r + parent.size();
+    }
+
+    // Count of the entries in this Lookup, excluding any parent
+    private int localSize() {
+        int r = size;
+        if (r != UNKNOWN) return r;
+        long v = version;
+        r = local().size();
+        synchronized (this) {
+            if (version == v && size == UNKNOWN) size = r;
+        }
+        return r;
+    }
+
+    /**
+     * @return True if there are no entries.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return An entry from the contents, or null if there are none. The same
+     * entry is returned until it is removed, unless the entries are ordered
+     * in which case it is the first in order.
+     */
+    @SuppressWarnings("unchecked")
+    public T first() {
+        lookup.materialize(type);
+        if (parent != null && localSize() == 0) return parent.first();
+        Object r = head;
+        if (r != STALE) return (T) r;
+        long v = version;
+        List<Class> matches = lookup.matches(type);
+        if (matches.size() == 1) {
+            r = lookup.store(matches.get(0)).first();
+        } else {
+            List<T> items = local();
+            r = items.isEmpty() ? null : items.get(0);
+        }
+        synchronized (this) {
+            if (version == v && head == STALE) head = r;
+        }
+        return (T) r;
+    }
+
+    /**
+     * @return Unmodifiable snapshot of the contents. Later changes to the
+     * Lookup are not reflected in it.
+     */
+    public List<T> list() {
+        lookup.materialize(type);
+        List<T> local = local();
+        if (parent == null) return local;
+        List<T> up = parent.list();
+        if (up.isEmpty()) return local;
+        if (local.isEmpty()) return up;
+        Merged<T> m = merged;
+        if (m != null && m.local == local && m.parent == up) return m.items;
+        List<T> items = new ArrayList<T>(local.size() + up.size());
+        items.addAll(local);
+        items.addAll(up);
+        m = new Merged<T>(local, up, Collections.unmodifiableList(items));
+        merged = m;
+        return m.items;
+    }
+
+    // Entries in this Lookup, excluding any parent
+    private List<T> local() {
+        long v = version;
+        Snapshot<T> s = current;
+        if (s != null && s.version == v) return s.items;
+
+        List<Class> matches = lookup.matches(type);
+        if (matches.size() == 1) {
+            List<T> items = lookup.store(matches.get(0)).snapshot();
+            materialized(items);
+            // A change during the read will have moved the version on, so
+            // this snapshot will not be reused.
+            current = new Snapshot<T>(v, items);
+            return items;
+        }
+        while (true) {
+            List<T> merged = new ArrayList<T>();
+            for (Class k : matches) {
+                merged.addAll(lookup.store(k).snapshot());
+            }
+            // If the version moved on, a Batch may have been committed part
+            // way through reading the Stores, so read them again.
+            long after = version;
+            if (after == v) {
+                List<T> items = Collections.unmodifiableList(merged);
+                materialized(items);
+                current = new Snapshot<T>(v, items);
+                return items;
+            }
+            v = after;
+            matches = lookup.matches(type);
+        }
+    }
+
+    private void materialized(List<T> items) {
+        LookupStats stats = lookup.stats();
+        if (stats != null) stats.materialized(type, items.size());
+    }
+
+    /**
+     * Applies a change to one or more of the contributing Stores. Called with
+     * the lock of every changed Store held, after the Stores have changed.
+     *
+     * @param sizeDelta Change in the number of entries.
+     * @param removed Entries which may have been removed.
+     * @param added Entries which were added.
+     * @param reordered True if a changed Store is ordered, so the head may
+     * have moved.
+     */
+    synchronized void changed(int sizeDelta, Collection<? extends T> removed, Collection<? extends T> added, boolean reordered) {
+        version++;
+        if (size != UNKNOWN) {
+            size += sizeDelta;
+            if (size == 0) {
+                head = null;
+                return;
+            }
+        }
+        Object h = head;
+        if (reordered || h != STALE && h != null && removed.contains(h)) {
+            h = STALE;
+        }
+        if (h == null) {
+            h = added.isEmpty() ? STALE : added.iterator().next();
+        }
+        head = h;
+    }
+
+    private static class Merged<T> {
+        // The lists merged, which are replaced rather than changed
+        final List<T> local;
+        final List<T> parent;
+        final List<T> items;
+
+        Merged(List<T> local, List<T> parent, List<T> items) {
+            this.local = local;
+            this.parent = parent;
+            this.items = items;
+        }
+    }
+
+    private static class Snapshot<T> {
+        final long version;
+        final List<T> items;
+
+        Snapshot(long version, List<T> items) {
+            this.version = version;
+            this.items = items;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package simplelookup;
+
+/**
+ * A single value held in the Lookup under one class, such as a configuration
+ * object or a service. Obtained from {@link Lookup#slot(Class)}.
+ *
+ * A Slot is another way of using the contents of its class: setting it is the
+ * same as {@link Lookup.View#replaceAllWith(Object)}, listeners are notified
+ * in the same way and the value is visible to every View assignable from the
+ * class. Reading the value does not lock, and once any providers of the
+ * class have been constructed costs a single volatile read.
+ *
+ * A Slot of a child Lookup reads the parent's value while the child holds
+ * none, but setting or clearing it only changes the child.
+ */
+public final class Slot<T> {
+    private final Lookup lookup;
+    private final Lookup.View<T> view;
+    private final Store<T> store;
+    // The same Slot in the parent Lookup, or null
+    private final Slot<T> parent;
+
+    Slot(Lookup lookup, Lookup.View<T> view, Store<T> store, Slot<T> parent) {
+        this.lookup = lookup;
+        this.view = view;
+        this.store = store;
+        this.parent = parent;
+    }
+
+    /**
+     * @return The class this Slot holds a value for.
+     */
+    public Class<T> type() {
+        return store.type;
+    }
+
+    /**
+     * @return The current value, or null if there is none. If more than one
+     * item has been added to the class through a View, one of them. Any
+     * providers of the class are constructed first.
+     */
+    public T get() {
+        lookup.materialize(store);
+        T t = store.first();
+        return t == null && parent != null ? parent.get() : t;
+    }
+
+    /**
+     * Replaces the contents of the class with the given value.
+     */
+    public void set(T value) {
+        view.replaceAllWith(value);
+    }
+
+    /**
+     * Replaces the contents of the class with the update, if the current value
+     * is the expected one.
+     *
+     * @param expect Value expected to be current, as returned by
+     * {@link #get()} and compared by identity. Null if the Slot is expected to
+     * be empty.
+     * @param update New value.
+     * @return True if the value was replaced.
+     */
+    public boolean compareAndSet(T expect, T update) {
+        // Providers are constructed outside the lock, they may query the
+        // Lookup.
+        lookup.materialize(store);
+        synchronized (store) {
+            if (get() != expect) return false;
+            view.replaceAllWith(update);
+        }
+        lookup.awaitDelivery(store);
+        return true;
+    }
+
+    /**
+     * Removes the value held in this Lookup. A child's Slot then reads the
+     * parent's value again.
+     */
+    public void clear() {
+        lookup.materialize(store);
+        synchronized (store) {
+            if (store.queue.size() == 0) return;
+            view.removeAll(store.snapshot());
+        }
+        lookup.awaitDelivery(store);
+    }
+}
@@ -0,0 +1,158 @@
+package simplelookup;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * An IndexedQueue which keeps its Objects in order, either by a Comparator or
+ * in the order they were added. Objects which the Comparator considers equal
+ * are kept in the order they were added.
+ *
+ * Each occurrence of an Object is held in a balanced tree, so adds and
+ * removes take O(log n) and the Objects are listed in order without sorting.
+ * The counts kept by the IndexedQueue still answer whether an Object is held.
+ */
+class SortedQueue<T> extends IndexedQueue<T> {
+    // Null when ordered by insertion
+    private final Comparator<? super T> comparator;
+    private final NavigableSet<Entry<T>> entries;
+    // Occurrences of each Object in the tree, oldest first
+    private final Map<T, ArrayDeque<Entry<T>>> occurrences = new HashMap<T, ArrayDeque<Entry<T>>>();
+    private long sequence;
+
+    /**
+     * @param comparator Orders the Objects, or null to keep them in the
+     * order they were added.
+     */
+    SortedQueue(final Comparator<? super T> comparator) {
+        this.comparator = comparator;
+        this.entries = new TreeSet<Entry<T>>(new Comparator<Entry<T>>() {
+            public int compare(Entry<T> a, Entry<T> b) {
+                if (comparator != null) {
+                    int r = comparator.compare(a.item, b.item);
+                    if (r != 0) return r;
+                }
+                return Long.compare(a.sequence, b.sequence);
+            }
+        });
+    }
+
+    Comparator<? super T> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public void add(T t) {
+        Entry<T> entry = new Entry<T>(t, sequence++);
+        // Into the tree first, as the Comparator may reject the Object, in
+        // which case nothing is counted.
+        entries.add(entry);
+        try {
+            super.add(t);
+        } catch (RuntimeException e) {
+            entries.remove(entry);
+            throw e;
+        }
+        ArrayDeque<Entry<T>> list = occurrences.get(t);
+        if (list == null) {
+            list = new ArrayDeque<Entry<T>>(1);
+            occurrences.put(t, list);
+        }
+        list.add(entry);
+    }
+
+    @Override
+    public boolean remove(T t) {
+        if (!super.remove(t)) return false;
+        ArrayDeque<Entry<T>> list = occurrences.get(t);
+        entries.remove(list.poll());
+        if (list.isEmpty()) occurrences.remove(t);
+        return true;
+    }
+
+    @Override
+    public List<T> list() {
+        return items(entries, size(), new ArrayList<T>(size()));
+    }
+
+    @Override
+    T first() {
+        return entries.isEmpty() ? null : entries.first().item;
+    }
+
+    /**
+     * @return The last Object in order, or null if there are none.
+     */
+    T last() {
+        return entries.isEmpty() ? null : entries.last().item;
+    }
+
+    /**
+     * @return Up to the first k Objects in order.
+     */
+    List<T> head(int k) {
+        return items(entries, k, new ArrayList<T>(Math.min(k, size())));
+    }
+
+    /**
+     * @return Up to the last k Objects, last first.
+     */
+    List<T> tail(int k) {
+        return items(entries.descendingSet(), k, new ArrayList<T>(Math.min(k, size())));
+    }
+
+    /**
+     * @return The Objects from the first inclusive to the second exclusive,
+     * as ordered by the Comparator.
+     */
+    List<T> range(T from, T to) {
+        // Sequence numbers start at zero, so these sort before any Object the
+        // Comparator considers equal to them.
+        Entry<T> low = new Entry<T>(from, -1);
+        Entry<T> high = new Entry<T>(to, -1);
+        return items(entries.subSet(low, true, high, false), size(), new ArrayList<T>());
+    }
+
+    @Override
+    boolean matches(List<T> list) {
+        if (list.size() != size()) return false;
+        Iterator<Entry<T>> it = entries.iterator();
+        for (T t : list) {
+            if (t != it.next().item) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        entries.clear();
+        occurrences.clear();
+    }
+
+    // Adds up to k Objects from the set to the list.
+    private static <T> List<T> items(Iterable<Entry<T>> set, int k, List<T> r) {
+        for (Entry<T> e : set) {
+            if (r.size() == k) break;
+            r.add(e.item);
+        }
+        return r;
+    }
+
+    private static class Entry<T> {
+        final T item;
+        final long sequence;
+
+        Entry(T item, long sequence) {
+            this.item = item;
+            this.sequence = sequence;
+        }
+    }
+}
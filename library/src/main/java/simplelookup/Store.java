@@ -0,0 +1,129 @@
+package simplelookup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * The contents of the Lookup for a single stored class.
+ *
+ * Each Store is also the lock for its contents. Any access to the queue, and
+ * the notification of listeners that follows a change, must hold the Store's
+ * monitor. Stores of unrelated classes have separate locks, so writers to
+ * different classes never contend.
+ *
+ * Readers do not need the lock while the contents are unchanged: an immutable
+ * snapshot is published after the first read following a change, and reused
+ * until the next change. The same snapshot is handed to every basic listener
+ * notified of a change. If a change leaves the contents as they were, the
+ * previous snapshot is published again rather than a copy.
+ */
+class Store<T> {
+    final Class<T> type;
+    // Unique within the Lookup, gives the order in which several Store
+    // locks are taken.
+    final long id;
+    // Replaced when the Store is ordered, guarded by this
+    IndexedQueue<T> queue = new IndexedQueue<T>();
+    private volatile List<T> snapshot;
+    // First item in the queue, republished on every change
+    private volatile T first;
+    // The last snapshot published, guarded by this
+    private List<T> previous;
+    // Size of the queue when last changed, written with the lock held
+    private volatile int size;
+    // Items waiting to be constructed, null if there are none. Guarded by
+    // this, and volatile so that reads can skip the lock while it is null
+    volatile Set<Provider<T>> providers;
+    // Sequence of the last change recorded in a journal, or of the snapshot
+    // the Store was restored from. Guarded by this
+    long sequence;
+
+    Store(Class<T> type, long id) {
+        this.type = type;
+        this.id = id;
+    }
+
+    /**
+     * @return An immutable copy of the current contents.
+     */
+    List<T> snapshot() {
+        List<T> r = snapshot;
+        if (r != null) return r;
+        synchronized (this) {
+            if (snapshot == null) {
+                if (previous == null || !queue.matches(previous)) {
+                    previous = Collections.unmodifiableList(new ArrayList<T>(queue.list()));
+                }
+                snapshot = previous;
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * @return The first item, without locking. Null if the Store is empty.
+     */
+    T first() {
+        return first;
+    }
+
+    /**
+     * @return The number of items as of the last change, without locking.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Discards the published snapshot, must be called with the lock held
+     * after any change to the queue.
+     *
+     * @return The change in the size of the queue since the last call.
+     */
+    int changed() {
+        snapshot = null;
+        first = queue.first();
+        int delta = queue.size() - size;
+        size = queue.size();
+        return delta;
+    }
+
+    /**
+     * Constructs one or more items for the Store on first use, at most once.
+     */
+    static final class Provider<T> {
+        // False if the items were restored, so are not journaled again
+        final boolean journaled;
+        // Null once the items have been constructed
+        private Supplier<? extends Collection<? extends T>> supplier;
+        private Collection<? extends T> items;
+
+        Provider(Supplier<? extends Collection<? extends T>> supplier, boolean journaled) {
+            this.supplier = supplier;
+            this.journaled = journaled;
+        }
+
+        /**
+         * @return A provider of the single item from the supplier.
+         */
+        static <T> Provider<T> of(final Supplier<? extends T> supplier) {
+            return new Provider<T>(new Supplier<Collection<T>>() {
+                public Collection<T> get() {
+                    return Collections.<T>singletonList(supplier.get());
+                }
+            }, true);
+        }
+
+        synchronized Collection<? extends T> get() {
+            if (supplier != null) {
+                items = supplier.get();
+                supplier = null;
+            }
+            return items;
+        }
+    }
+}
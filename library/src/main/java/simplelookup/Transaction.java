@@ -0,0 +1,63 @@
+package simplelookup;
+
+import java.util.Collection;
+
+/**
+ * A {@link Batch} seen through a single View class, obtained from
+ * {@link Lookup.View#transaction()}. Changes are recorded with the same
+ * methods as the View and applied together on {@link #commit()}.
+ */
+public final class Transaction<S> {
+    private final Batch batch;
+    private final Class<S> c;
+
+    Transaction(Batch batch, Class<S> c) {
+        this.batch = batch;
+        this.c = c;
+    }
+
+    public Transaction<S> add(S t) {
+        batch.add(c, t);
+        return this;
+    }
+
+    public Transaction<S> remove(S t) {
+        batch.remove(c, t);
+        return this;
+    }
+
+    public Transaction<S> addAll(Collection<S> list) {
+        batch.addAll(c, list);
+        return this;
+    }
+
+    public Transaction<S> removeAll(Collection<S> list) {
+        batch.removeAll(c, list);
+        return this;
+    }
+
+    public Transaction<S> replaceAllWith(S t) {
+        batch.replaceAllWith(c, t);
+        return this;
+    }
+
+    public Transaction<S> replaceAllWith(Collection<S> list) {
+        batch.replaceAllWith(c, list);
+        return this;
+    }
+
+    /**
+     * @return The underlying Batch, to include changes to other classes in
+     * the same commit.
+     */
+    public Batch batch() {
+        return batch;
+    }
+
+    /**
+     * Applies the changes and notifies listeners, see {@link Batch#commit()}.
+     */
+    public void commit() {
+        batch.commit();
+    }
+}
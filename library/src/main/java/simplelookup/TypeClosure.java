@@ -0,0 +1,66 @@
+package simplelookup;
+
+import java.lang.reflect.Array;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Memoized type closure of a class: the class itself, its super classes and
+ * all of its interfaces. This is every type a stored object may be viewed or
+ * listened to as.
+ *
+ * The closure is computed once per class and cached against the class, so it
+ * costs nothing further on the mutation path.
+ */
+final class TypeClosure {
+    private static final ClassValue<Class[]> CLOSURE = new ClassValue<Class[]>() {
+        @Override
+        protected Class[] computeValue(Class<?> c) {
+            Set<Class> r = compute(c);
+            return r.toArray(new Class[r.size()]);
+        }
+    };
+
+    private TypeClosure() {
+    }
+
+    /**
+     * @return The type closure of the class. The class comes first, followed
+     * by its super classes nearest first, then its interfaces. The array is
+     * shared and must not be modified.
+     */
+    static Class[] of(Class c) {
+        return CLOSURE.get(c);
+    }
+
+    private static Set<Class> compute(Class c) {
+        Set<Class> r = new LinkedHashSet<Class>();
+        collectClasses(c, r);
+        collectInterfaces(c, r);
+        // Interfaces have no super class but are still assignable to Object.
+        r.add(Object.class);
+        return r;
+    }
+
+    private static void collectClasses(Class c, Set<Class> r) {
+        for (Class search = c; search != null; search = search.getSuperclass()) {
+            r.add(search);
+        }
+    }
+
+    private static void collectInterfaces(Class c, Set<Class> r) {
+        for (Class search = c; search != null; search = search.getSuperclass()) {
+            for (Class i : search.getInterfaces()) {
+                for (Class t : of(i)) {
+                    if (t != Object.class) r.add(t);
+                }
+            }
+        }
+        if (c.isArray() && !c.getComponentType().isPrimitive()) {
+            // Arrays are covariant: String[] may be viewed as CharSequence[]
+            for (Class component : of(c.getComponentType())) {
+                r.add(Array.newInstance(component, 0).getClass());
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package simplelookup;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import simplelookup.listener.LookupBasicListener;
+import simplelookup.listener.LookupListener;
+
+/**
+ * Stands in for a weakly registered listener in the Lookup's listener lists.
+ * Once the listener has been collected the reference is enqueued, and the
+ * Lookup removes it the next time it looks up listeners to notify.
+ */
+final class WeakListener extends WeakReference<LookupListener> implements LookupListener {
+    // Class the listener was registered against
+    final Class type;
+    final boolean basic;
+
+    WeakListener(Class type, LookupListener listener, ReferenceQueue<LookupListener> queue) {
+        super(listener, queue);
+        this.type = type;
+        this.basic = listener instanceof LookupBasicListener;
+    }
+
+    /**
+     * @return The listener to notify for an entry in a listener list, or
+     * null if it has been collected.
+     */
+    static LookupListener resolve(LookupListener entry) {
+        return entry instanceof WeakListener ? ((WeakListener) entry).get() : entry;
+    }
+
+    /**
+     * @return True if the entry is, or stands in for, a basic listener.
+     */
+    static boolean isBasic(LookupListener entry) {
+        if (!(entry instanceof WeakListener)) return entry instanceof LookupBasicListener;
+        WeakListener weak = (WeakListener) entry;
+        if (weak.basic) return true;
+        // A child's Forwarder is basic if any listener it forwards to is.
+        LookupListener listener = weak.get();
+        return listener instanceof Lookup.Forwarder && ((Lookup.Forwarder) listener).isBasic();
+    }
+}
@@ -0,0 +1,199 @@
+package simplelookup;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplelookup.AsyncDelivery.Backpressure;
+import simplelookup.Lookup.View;
+import simplelookup.listener.LookupBasicListener;
+import simplelookup.listener.LookupDeltaListener;
+
+public class AsyncDeliveryTest {
+
+    /**
+     * Executor which only runs tasks when asked to.
+     */
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new LinkedList<Runnable>();
+
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    @Test
+    public void testDeliveredInOrder() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        Recorder<String> recorder = new Recorder<String>() {
+            @Override
+            public synchronized void resultAdded(Collection<String> additions) {
+                super.resultAdded(additions);
+                if (additions.contains("Stoat")) done.countDown();
+            }
+        };
+        Lookup l = new Lookup(new AsyncDelivery());
+        l.register(String.class, recorder);
+
+        View<String> view = l.getView(String.class);
+        view.add("Badger");
+        view.add("Ferret");
+        view.remove("Badger");
+        view.add("Stoat");
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("+Badger", "+Ferret", "-Badger", "+Stoat"), recorder.events());
+    }
+
+    @Test
+    public void testCrossWritingListeners() throws Exception {
+        // Each listener changes the other's class. Notified on the mutating
+        // thread this could deadlock, as each thread would hold one class's
+        // lock while waiting for the other's.
+        Lookup l = new Lookup(new AsyncDelivery());
+        final View<String> strings = l.getView(String.class);
+        final View<Integer> integers = l.getView(Integer.class);
+        final int count = 1000;
+        final CountDownLatch done = new CountDownLatch(2 * count);
+        l.register(String.class, new LookupDeltaListener<String>() {
+            public void resultAdded(Collection<String> additions) {
+                for (String s : additions) {
+                    if (s.startsWith("a")) integers.add(-1);
+                    else done.countDown();
+                }
+            }
+            public void resultRemoved(Collection<String> removals) {}
+        });
+        l.register(Integer.class, new LookupDeltaListener<Integer>() {
+            public void resultAdded(Collection<Integer> additions) {
+                for (Integer i : additions) {
+                    if (i >= 0) strings.add("b");
+                    else done.countDown();
+                }
+            }
+            public void resultRemoved(Collection<Integer> removals) {}
+        });
+
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                for (int ii = 0; ii < count; ii++) integers.add(ii);
+            }
+        });
+        writer.start();
+        for (int ii = 0; ii < count; ii++) strings.add("a" + ii);
+        writer.join(5000);
+
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2 * count, strings.size());
+        Assert.assertEquals(2 * count, integers.size());
+    }
+
+    @Test
+    public void testBlockedListenerQueries() throws Exception {
+        // The writer waits for the full queue after releasing the Store
+        // lock, so the listener can still read its View.
+        Lookup l = new Lookup(new AsyncDelivery(AsyncDelivery.defaultExecutor(), 1, Backpressure.BLOCK));
+        final View<String> strings = l.getView(String.class);
+        final int count = 200;
+        final CountDownLatch done = new CountDownLatch(count);
+        l.register(String.class, new LookupDeltaListener<String>() {
+            public void resultAdded(Collection<String> additions) {
+                Assert.assertFalse(strings.list().isEmpty());
+                Assert.assertTrue(strings.size() > 0);
+                done.countDown();
+            }
+            public void resultRemoved(Collection<String> removals) {}
+        });
+
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                for (int ii = 0; ii < count; ii++) strings.add("Badger" + ii);
+            }
+        });
+        writer.start();
+        writer.join(10000);
+        Assert.assertFalse(writer.isAlive());
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNotOnMutatingThread() {
+        ManualExecutor executor = new ManualExecutor();
+        final List<Collection<String>> results = new LinkedList<Collection<String>>();
+        Lookup l = new Lookup(new AsyncDelivery(executor, 16, Backpressure.BLOCK));
+        l.register(String.class, new LookupBasicListener<String>() {
+            public void resultChanged(Collection<String> result) {
+                results.add(result);
+            }
+        });
+
+        View<String> view = l.getView(String.class);
+        view.add("Badger");
+        view.add("Ferret");
+        Assert.assertTrue(results.isEmpty());
+
+        // Basic listeners see the contents as they were at each change.
+        executor.runAll();
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals(1, results.get(0).size());
+        Assert.assertEquals(2, results.get(1).size());
+    }
+
+    @Test
+    public void testDropOldest() {
+        ManualExecutor executor = new ManualExecutor();
+        Recorder<String> recorder = new Recorder<String>();
+        Lookup l = new Lookup(new AsyncDelivery(executor, 2, Backpressure.DROP_OLDEST));
+        l.register(String.class, recorder);
+
+        View<String> view = l.getView(String.class);
+        view.add("Badger");
+        view.add("Ferret");
+        view.add("Stoat");
+        executor.runAll();
+        Assert.assertEquals(Arrays.asList("+Ferret", "+Stoat"), recorder.events());
+    }
+
+    @Test
+    public void testCoalesce() {
+        ManualExecutor executor = new ManualExecutor();
+        Recorder<String> recorder = new Recorder<String>();
+        Lookup l = new Lookup(new AsyncDelivery(executor, 1, Backpressure.COALESCE));
+        l.register(String.class, recorder);
+
+        View<String> view = l.getView(String.class);
+        view.add("Badger");
+        view.add("Ferret");
+        view.remove("Badger");
+        view.add("Stoat");
+        executor.runAll();
+
+        // Badger was added and removed while queued, so cancels out.
+        Assert.assertEquals(Arrays.asList("+Ferret", "+Stoat"), recorder.events());
+    }
+
+    @Test
+    public void testDeregisterDiscardsQueued() {
+        ManualExecutor executor = new ManualExecutor();
+        Recorder<String> recorder = new Recorder<String>();
+        Lookup l = new Lookup(new AsyncDelivery(executor, 16, Backpressure.BLOCK));
+        l.register(String.class, recorder);
+        l.getView(String.class).add("Badger");
+        l.deregister(String.class, recorder);
+        executor.runAll();
+        Assert.assertTrue(recorder.events().isEmpty());
+    }
+}
@@ -0,0 +1,142 @@
+package simplelookup;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplelookup.Lookup.View;
+import simplelookup.listener.LookupBasicListener;
+
+public class BatchTest {
+
+    @Test
+    public void testSingleNotification() {
+        Lookup l = new Lookup();
+        Recorder<String> recorder = new Recorder<String>();
+        final List<Collection<String>> results = new LinkedList<Collection<String>>();
+        l.register(String.class, recorder);
+        l.register(String.class, new LookupBasicListener<String>() {
+            public void resultChanged(Collection<String> result) {
+                results.add(result);
+            }
+        });
+
+        Batch batch = l.batch();
+        for (int ii = 0; ii < 100; ii++) {
+            batch.add(String.class, "" + ii);
+        }
+        // Nothing happens until commit.
+        Assert.assertEquals(0, l.getView(String.class).size());
+        Assert.assertTrue(recorder.additions.isEmpty());
+
+        batch.commit();
+        Assert.assertEquals(100, l.getView(String.class).size());
+        Assert.assertEquals(1, recorder.additions.size());
+        Assert.assertEquals(100, recorder.additions.get(0).size());
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(100, results.get(0).size());
+    }
+
+    @Test
+    public void testCancelledPairs() {
+        Lookup l = new Lookup();
+        Recorder<String> recorder = new Recorder<String>();
+        l.register(String.class, recorder);
+        l.getView(String.class).add("Badger");
+
+        l.batch()
+                .add(String.class, "Ferret")
+                .remove(String.class, "Ferret")
+                .remove(String.class, "Badger")
+                .add(String.class, "Stoat")
+                .commit();
+
+        Assert.assertEquals(Arrays.asList("Stoat"), l.getView(String.class).list());
+        Assert.assertEquals(2, recorder.additions.size());
+        Assert.assertEquals(Arrays.asList("Stoat"), recorder.additions.get(1));
+        Assert.assertEquals(1, recorder.removals.size());
+        Assert.assertEquals(Arrays.asList("Badger"), recorder.removals.get(0));
+
+        // A Batch which cancels out entirely is not reported.
+        l.batch().add(String.class, "Weasel").remove(String.class, "Weasel").commit();
+        Assert.assertEquals(2, recorder.additions.size());
+        Assert.assertEquals(1, recorder.removals.size());
+    }
+
+    @Test
+    public void testCancelledForEveryListener() {
+        Lookup l = new Lookup();
+        List<Recorder<String>> recorders = new LinkedList<Recorder<String>>();
+        for (int ii = 0; ii < 3; ii++) {
+            Recorder<String> recorder = new Recorder<String>();
+            l.register(String.class, recorder);
+            recorders.add(recorder);
+        }
+
+        l.batch()
+                .add(String.class, "Badger")
+                .remove(String.class, "Badger")
+                .add(String.class, "Ferret")
+                .commit();
+
+        for (Recorder<String> recorder : recorders) {
+            Assert.assertEquals(1, recorder.additions.size());
+            Assert.assertEquals(Arrays.asList("Ferret"), recorder.additions.get(0));
+            Assert.assertTrue(recorder.removals.isEmpty());
+        }
+        Assert.assertEquals(Arrays.asList("Ferret"), l.getView(String.class).list());
+    }
+
+    @Test
+    public void testAcrossClasses() {
+        Lookup l = new Lookup();
+        Recorder<Object> objects = new Recorder<Object>();
+        Recorder<Integer> ints = new Recorder<Integer>();
+        l.register(Object.class, objects);
+        l.register(Integer.class, ints);
+        l.getView(String.class).add("Badger");
+        objects.additions.clear();
+
+        l.batch()
+                .replaceAllWith(String.class, Arrays.asList("Ferret", "Stoat"))
+                .add(Integer.class, 1)
+                .addAll(Long.class, Arrays.asList(2L, 3L))
+                .commit();
+
+        // One merged notification for the listener covering every class.
+        Assert.assertEquals(1, objects.additions.size());
+        Assert.assertEquals(5, objects.additions.get(0).size());
+        Assert.assertEquals(1, objects.removals.size());
+        Assert.assertEquals(Arrays.asList("Badger"), objects.removals.get(0));
+        Assert.assertEquals(1, ints.additions.size());
+        Assert.assertEquals(Arrays.asList(1), ints.additions.get(0));
+        Assert.assertEquals(5, l.getView(Object.class).size());
+    }
+
+    @Test
+    public void testTransaction() {
+        Lookup l = new Lookup();
+        View<String> view = l.getView(String.class);
+        Transaction<String> tx = view.transaction()
+                .add("Badger")
+                .addAll(Arrays.asList("Ferret", "Stoat"))
+                .remove("Ferret");
+        tx.batch().add(Integer.class, 1);
+        Assert.assertTrue(view.isEmpty());
+
+        tx.commit();
+        Assert.assertEquals(2, view.size());
+        Assert.assertEquals(3, l.getView(Object.class).size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCommitOnce() {
+        Batch batch = new Lookup().batch().add(String.class, "Badger");
+        batch.commit();
+        batch.commit();
+    }
+}
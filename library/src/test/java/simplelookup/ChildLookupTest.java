@@ -0,0 +1,173 @@
+package simplelookup;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import simplelookup.listener.LookupBasicListener;
+
+public class ChildLookupTest {
+
+    @Test
+    public void testReadsDelegate() {
+        Lookup global = new Lookup();
+        global.getView(String.class).add("Global");
+        Lookup tenant = global.child();
+        Lookup request = tenant.child();
+        Assert.assertSame(tenant, request.parent());
+
+        Assert.assertEquals(Arrays.asList("Global"), request.getView(String.class).list());
+        Assert.assertEquals(1, request.getView(String.class).size());
+        Assert.assertEquals("Global", request.getView(String.class).first());
+
+        // The nearest item comes first.
+        tenant.getView(String.class).add("Tenant");
+        request.getView(String.class).add("Request");
+        Assert.assertEquals(Arrays.asList("Request", "Tenant", "Global"), request.getView(String.class).list());
+        Assert.assertEquals("Request", request.getView(String.class).first());
+        Assert.assertEquals(3, request.getView(CharSequence.class).size());
+
+        // Children do not change their parents.
+        Assert.assertEquals(Arrays.asList("Tenant", "Global"), tenant.getView(String.class).list());
+        request.getView(String.class).remove("Request");
+        Assert.assertEquals("Tenant", request.getView(String.class).first());
+    }
+
+    @Test
+    public void testMergedListCached() {
+        Lookup parent = new Lookup();
+        parent.getView(String.class).add("Badger");
+        Lookup child = parent.child();
+        child.getView(String.class).add("Ferret");
+
+        Collection<String> first = child.getView(String.class).list();
+        Assert.assertSame(first, child.getView(String.class).list());
+        parent.getView(String.class).add("Stoat");
+        Collection<String> second = child.getView(String.class).list();
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(Arrays.asList("Ferret", "Badger", "Stoat"), second);
+        Assert.assertEquals(3, child.getView(String.class).size());
+    }
+
+    @Test
+    public void testListenersSeeParent() {
+        Lookup parent = new Lookup();
+        Lookup child = parent.child();
+        Recorder<String> recorder = new Recorder<String>();
+        Registration r = child.register(String.class, recorder);
+
+        parent.getView(String.class).add("Badger");
+        child.getView(String.class).add("Ferret");
+        Assert.assertEquals(Arrays.asList("Badger", "Ferret"), recorder.added);
+
+        r.close();
+        parent.getView(String.class).add("Stoat");
+        Assert.assertEquals(2, recorder.added.size());
+        Assert.assertEquals(0, parent.registrations());
+
+        child.register(String.class, recorder);
+        child.deregister(String.class, recorder);
+        Assert.assertEquals(0, parent.registrations());
+    }
+
+    @Test
+    public void testOneParentRegistration() {
+        Lookup parent = new Lookup();
+        Lookup child = parent.child();
+        Recorder<String> first = new Recorder<String>();
+        Recorder<String> second = new Recorder<String>();
+        final List<Collection<String>> results = new LinkedList<Collection<String>>();
+        child.register(String.class, first);
+        child.registerWeak(String.class, second);
+        child.register(String.class, new LookupBasicListener<String>() {
+            public void resultChanged(Collection<String> result) {
+                results.add(new ArrayList<String>(result));
+            }
+        });
+        Assert.assertEquals(1, parent.registrations());
+
+        parent.getView(String.class).add("Badger");
+        Assert.assertEquals(Arrays.asList("Badger"), first.added);
+        Assert.assertEquals(Arrays.asList("Badger"), second.added);
+        Assert.assertEquals(Arrays.asList(Arrays.asList("Badger")), results);
+
+        child.deregister(String.class, first);
+        Assert.assertEquals(1, parent.registrations());
+        child.deregister(String.class, second);
+        Assert.assertEquals(1, parent.registrations());
+        parent.batch().add(String.class, "Ferret").commit();
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals(1, first.added.size());
+    }
+
+    @Test
+    public void testDiscardedChildren() throws InterruptedException {
+        Lookup parent = new Lookup();
+        List<WeakReference<Lookup>> refs = new ArrayList<WeakReference<Lookup>>();
+        for (int ii = 0; ii < 1000; ii++) {
+            Lookup child = parent.child();
+            child.register(String.class, new Recorder<String>());
+            refs.add(new WeakReference<Lookup>(child));
+        }
+        Assert.assertEquals(1000, parent.registrations());
+        for (int ii = 0; ii < 100 && collected(refs) < refs.size(); ii++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assume.assumeTrue(collected(refs) == refs.size());
+
+        // The children are removed from the parent on the next change.
+        for (int ii = 0; ii < 100 && parent.registrations() > 0; ii++) {
+            parent.getView(String.class).add("Badger");
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, parent.registrations());
+    }
+
+    private static int collected(List<WeakReference<Lookup>> refs) {
+        int count = 0;
+        for (WeakReference<Lookup> ref : refs) {
+            if (ref.get() == null) count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testSlotReadsParent() {
+        Lookup parent = new Lookup();
+        Lookup child = parent.child();
+        Slot<String> slot = child.slot(String.class);
+        Assert.assertNull(slot.get());
+        parent.slot(String.class).set("Badger");
+        Assert.assertEquals("Badger", slot.get());
+
+        // Set in the child only, overriding the parent.
+        Assert.assertTrue(slot.compareAndSet("Badger", "Ferret"));
+        Assert.assertEquals("Ferret", slot.get());
+        Assert.assertEquals("Badger", parent.slot(String.class).get());
+        slot.clear();
+        Assert.assertEquals("Badger", slot.get());
+    }
+
+    @Test
+    public void testSubViewsIncludeParent() {
+        Lookup parent = new Lookup();
+        parent.getView(String.class).add("Badger");
+        Lookup child = parent.child();
+        child.getView(String.class).add("Bat");
+
+        FilteredView<String> b = child.getView(String.class).where(s -> s.startsWith("B"));
+        Assert.assertEquals(Arrays.asList("Bat", "Badger"), b.list());
+        parent.getView(String.class).add("Bear");
+        Assert.assertEquals(3, b.size());
+        b.close();
+        Assert.assertEquals(0, parent.registrations());
+    }
+}
@@ -0,0 +1,64 @@
+package simplelookup;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplelookup.listener.LookupDeltaListener;
+
+/**
+ * Loads the index and service registrations in the test resources.
+ */
+public class IndexTest {
+
+    public interface Animal {
+    }
+
+    public static class Badger implements Animal, Runnable {
+        static int created;
+
+        public Badger() {
+            created++;
+        }
+
+        public void run() {
+        }
+    }
+
+    public static class Ferret implements Animal {
+    }
+
+    @Test
+    public void testFromIndex() {
+        Lookup l = Lookup.fromIndex(getClass().getClassLoader());
+        final List<Collection<Animal>> added = new LinkedList<Collection<Animal>>();
+        l.register(Animal.class, new LookupDeltaListener<Animal>() {
+            public void resultAdded(Collection<Animal> additions) {
+                added.add(additions);
+            }
+            public void resultRemoved(Collection<Animal> removals) {}
+        });
+        int before = Badger.created;
+
+        // Materialized on first query, all in one notification.
+        Assert.assertEquals(2, l.getView(Animal.class).size());
+        Assert.assertEquals(before + 1, Badger.created);
+        Assert.assertEquals(1, added.size());
+        Assert.assertEquals(2, added.get(0).size());
+
+        // Listed under two services, but only instantiated once.
+        Assert.assertEquals(1, l.getView(Runnable.class).size());
+        Assert.assertEquals(before + 1, Badger.created);
+        Assert.assertTrue(l.getView(Animal.class).list().contains(l.getView(Runnable.class).first()));
+    }
+
+    @Test
+    public void testLoadServices() {
+        Lookup l = new Lookup();
+        Assert.assertEquals(1, l.loadServices(Animal.class, getClass().getClassLoader()));
+        Assert.assertTrue(l.getView(Animal.class).first() instanceof Ferret);
+    }
+}
@@ -1,5 +1,13 @@
 package simplelookup;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -36,4 +44,93 @@ public class IndexedQueueTest {
         }
         Assert.assertEquals(0, q.size());
     }
+
+    @Test
+    public void testDuplicates() {
+        IndexedQueue<String> q = new IndexedQueue<String>();
+        q.add("Badger");
+        q.add("Badger");
+        q.add(null);
+        Assert.assertEquals(3, q.size());
+        Assert.assertEquals(2, Collections.frequency(q.list(), "Badger"));
+        Assert.assertTrue(q.list().contains(null));
+
+        Assert.assertTrue(q.remove("Badger"));
+        Assert.assertTrue(q.remove(null));
+        Assert.assertFalse(q.remove("Ferret"));
+        Assert.assertEquals(Arrays.asList("Badger"), q.list());
+    }
+
+    @Test
+    public void testGrowth() {
+        IndexedQueue<Integer> q = new IndexedQueue<Integer>();
+        for (int ii = 0; ii < 10000; ii++) {
+            q.add(ii);
+            q.add(ii);
+        }
+        Assert.assertEquals(20000, q.size());
+        for (int ii = 0; ii < 10000; ii++) {
+            Assert.assertTrue(q.remove(ii));
+        }
+        Assert.assertEquals(10000, q.size());
+        Assert.assertEquals(10000, new HashSet<Integer>(q.list()).size());
+
+        q.clear();
+        Assert.assertEquals(0, q.size());
+        Assert.assertTrue(q.list().isEmpty());
+    }
+
+    @Test
+    public void testOverRemoval() {
+        IndexedQueue<String> q = new IndexedQueue<String>();
+        q.add("Badger");
+        Assert.assertTrue(q.remove("Badger"));
+        Assert.assertFalse(q.remove("Badger"));
+        Assert.assertEquals(0, q.size());
+
+        // The count never goes negative, so a later add is visible again.
+        q.add("Badger");
+        Assert.assertEquals(Arrays.asList("Badger"), q.list());
+    }
+
+    @Test
+    public void testAgainstModel() {
+        Random random = new Random(42);
+        IndexedQueue<Integer> q = new IndexedQueue<Integer>();
+        Map<Integer, Integer> model = new HashMap<Integer, Integer>();
+        int total = 0;
+        for (int ii = 0; ii < 200000; ii++) {
+            // Grow the number of distinct keys, then remove them all.
+            boolean growing = ii < 100000;
+            Integer key = random.nextInt(growing ? 5000 : 50);
+            Integer count = model.get(key);
+            if (growing && random.nextBoolean()) {
+                q.add(key);
+                model.put(key, count == null ? 1 : count + 1);
+                total++;
+            } else {
+                Assert.assertEquals(count != null, q.remove(key));
+                if (count == null) continue;
+                if (count == 1) {
+                    model.remove(key);
+                } else {
+                    model.put(key, count - 1);
+                }
+                total--;
+            }
+        }
+        Assert.assertEquals(total, q.size());
+        List<Integer> list = q.list();
+        Assert.assertEquals(total, list.size());
+        for (Map.Entry<Integer, Integer> e : model.entrySet()) {
+            Assert.assertEquals((int) e.getValue(), Collections.frequency(list, e.getKey()));
+        }
+
+        // Evicting everything leaves nothing behind.
+        for (Integer key : list) {
+            Assert.assertTrue(q.remove(key));
+        }
+        Assert.assertEquals(0, q.size());
+        Assert.assertTrue(q.list().isEmpty());
+    }
 }
@@ -0,0 +1,155 @@
+package simplelookup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LookupJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LookupSnapshot snapshot = new LookupSnapshot()
+            .codec(String.class, Codec.STRING)
+            .codec(Integer.class, Codec.INTEGER);
+    private Path journalFile;
+    private Path snapshotFile;
+
+    @Before
+    public void setUp() {
+        journalFile = folder.getRoot().toPath().resolve("lookup.journal");
+        snapshotFile = folder.getRoot().toPath().resolve("lookup.snapshot");
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        Lookup l = new Lookup();
+        LookupJournal journal = open();
+        Assert.assertEquals(0, journal.attach(l));
+        l.getView(String.class).addAll(Arrays.asList("Badger", "Ferret", "Stoat"));
+        l.getView(String.class).remove("Ferret");
+        l.getView(Integer.class).replaceAllWith(1);
+        l.getView(Integer.class).replaceAllWith(Arrays.asList(2, 3));
+        l.batch().add(String.class, "Weasel").remove(Integer.class, 2).commit();
+        // Not recorded, as there is no codec.
+        l.getView(Long.class).add(7L);
+        journal.sync();
+        journal.close();
+
+        Lookup recovered = new Lookup();
+        journal = open();
+        // One change per class for the Batch.
+        Assert.assertEquals(6, journal.attach(recovered));
+        journal.close();
+        assertSame(l, recovered);
+        Assert.assertTrue(recovered.getView(Long.class).isEmpty());
+    }
+
+    @Test
+    public void testCheckpoint() throws IOException {
+        Lookup l = new Lookup();
+        LookupJournal journal = open();
+        journal.attach(l);
+        l.getView(String.class).addAll(Arrays.asList("Badger", "Ferret"));
+        l.getView(Integer.class).add(1);
+        journal.checkpoint(snapshotFile);
+        l.getView(String.class).remove("Badger");
+        journal.close();
+
+        Lookup recovered = new Lookup();
+        snapshot.restore(recovered, snapshotFile);
+        journal = open();
+        // Only the change made after the checkpoint is replayed.
+        Assert.assertEquals(1, journal.attach(recovered));
+        assertSame(l, recovered);
+
+        // Numbering carries on from the snapshot, so later changes replay.
+        recovered.getView(Integer.class).add(2);
+        journal.close();
+        Lookup again = new Lookup();
+        snapshot.restore(again, snapshotFile);
+        journal = open();
+        Assert.assertEquals(2, journal.attach(again));
+        journal.close();
+        assertSame(recovered, again);
+    }
+
+    @Test
+    public void testReplaceRestored() throws IOException {
+        Lookup l = new Lookup();
+        l.getView(String.class).addAll(Arrays.asList("Badger", "Ferret"));
+        snapshot.write(l, snapshotFile);
+
+        // The restored items are replaced before they are ever decoded.
+        Lookup restored = new Lookup();
+        snapshot.restore(restored, snapshotFile);
+        LookupJournal journal = open();
+        journal.attach(restored);
+        restored.getView(String.class).replaceAllWith("Stoat");
+        journal.close();
+
+        Lookup recovered = new Lookup();
+        snapshot.restore(recovered, snapshotFile);
+        journal = open();
+        journal.attach(recovered);
+        journal.close();
+        Assert.assertEquals(Arrays.asList("Stoat"), new ArrayList<String>(recovered.getView(String.class).list()));
+    }
+
+    @Test
+    public void testTornRecord() throws IOException {
+        Lookup l = new Lookup();
+        LookupJournal journal = open();
+        journal.attach(l);
+        l.getView(String.class).add("Badger");
+        journal.close();
+        // A record cut short by a crash.
+        Files.write(journalFile, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        Lookup recovered = new Lookup();
+        journal = open();
+        Assert.assertEquals(1, journal.attach(recovered));
+        recovered.getView(String.class).add("Ferret");
+        journal.close();
+
+        Lookup again = new Lookup();
+        journal = open();
+        Assert.assertEquals(2, journal.attach(again));
+        journal.close();
+        assertSame(recovered, again);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testOneJournalPerLookup() throws IOException {
+        Lookup l = new Lookup();
+        open().attach(l);
+        new LookupJournal(folder.getRoot().toPath().resolve("other"), snapshot, 10, TimeUnit.MILLISECONDS).attach(l);
+    }
+
+    private LookupJournal open() throws IOException {
+        return new LookupJournal(journalFile, snapshot, 10, TimeUnit.MILLISECONDS);
+    }
+
+    private static void assertSame(Lookup expected, Lookup actual) {
+        Assert.assertEquals(sorted(expected.getView(String.class).list()), sorted(actual.getView(String.class).list()));
+        Assert.assertEquals(sorted(expected.getView(Integer.class).list()), sorted(actual.getView(Integer.class).list()));
+    }
+
+    private static <T extends Comparable<T>> List<T> sorted(Collection<T> items) {
+        List<T> r = new ArrayList<T>(items);
+        Collections.sort(r);
+        return r;
+    }
+}
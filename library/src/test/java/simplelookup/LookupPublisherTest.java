@@ -0,0 +1,201 @@
+package simplelookup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplelookup.Lookup.View;
+
+public class LookupPublisherTest {
+
+    private static class Recorder<T> implements Flow.Subscriber<LookupEvent<T>> {
+        final List<LookupEvent<T>> events = new LinkedList<LookupEvent<T>>();
+        Flow.Subscription subscription;
+        Throwable error;
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(LookupEvent<T> item) {
+            events.add(item);
+        }
+
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        public void onComplete() {
+        }
+    }
+
+    @Test
+    public void testDemand() {
+        Lookup l = new Lookup();
+        View<String> view = l.getView(String.class);
+        Recorder<String> recorder = new Recorder<String>();
+        view.publisher().subscribe(recorder);
+        Assert.assertNotNull(recorder.subscription);
+
+        recorder.subscription.request(2);
+        view.add("Badger");
+        view.replaceAllWith("Ferret");
+        Assert.assertEquals(2, recorder.events.size());
+        Assert.assertEquals(Arrays.asList("Badger"), recorder.events.get(0).added());
+        // A replacement arrives as one event.
+        Assert.assertEquals(Arrays.asList("Badger"), recorder.events.get(1).removed());
+        Assert.assertEquals(Arrays.asList("Ferret"), recorder.events.get(1).added());
+
+        // Nothing more until requested.
+        view.add("Stoat");
+        Assert.assertEquals(2, recorder.events.size());
+        recorder.subscription.request(1);
+        Assert.assertEquals(3, recorder.events.size());
+        Assert.assertEquals(Arrays.asList("Stoat"), recorder.events.get(2).added());
+    }
+
+    @Test
+    public void testCoalesced() {
+        Lookup l = new Lookup();
+        View<String> view = l.getView(String.class);
+        view.add("Badger");
+        Recorder<String> recorder = new Recorder<String>();
+        view.publisher().subscribe(recorder);
+
+        view.add("Ferret");
+        view.remove("Badger");
+        view.remove("Ferret");
+        view.add("Stoat");
+        recorder.subscription.request(Long.MAX_VALUE);
+
+        Assert.assertEquals(1, recorder.events.size());
+        LookupEvent<String> event = recorder.events.get(0);
+        Assert.assertFalse(event.isSnapshot());
+        Assert.assertEquals(Arrays.asList("Badger"), event.removed());
+        Assert.assertEquals(Arrays.asList("Stoat"), event.added());
+
+        recorder.subscription.request(Long.MAX_VALUE);
+        view.add("Weasel");
+        Assert.assertEquals(2, recorder.events.size());
+    }
+
+    @Test
+    public void testInitialSnapshot() {
+        Lookup l = new Lookup();
+        l.getView(String.class).addAll(Arrays.asList("Badger", "Ferret"));
+        l.getView(Integer.class).add(1);
+        Recorder<Object> recorder = new Recorder<Object>();
+        l.getView(Object.class).publisher(true).subscribe(recorder);
+
+        l.getView(String.class).remove("Badger");
+        l.getView(Long.class).add(2L);
+        recorder.subscription.request(2);
+        l.getView(String.class).add("Stoat");
+
+        Assert.assertEquals(2, recorder.events.size());
+        LookupEvent<Object> snapshot = recorder.events.get(0);
+        Assert.assertTrue(snapshot.isSnapshot());
+        Assert.assertTrue(snapshot.removed().isEmpty());
+        Assert.assertEquals(3, snapshot.added().size());
+        Assert.assertTrue(snapshot.added().containsAll(Arrays.asList("Ferret", 1, 2L)));
+        Assert.assertEquals(Arrays.asList("Stoat"), recorder.events.get(1).added());
+    }
+
+    @Test
+    public void testSnapshotWhileChanging() throws InterruptedException {
+        Lookup l = new Lookup();
+        final View<Integer> view = l.getView(Integer.class);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread() {
+            public void run() {
+                for (int ii = 0; running.get(); ii++) {
+                    view.add(ii);
+                    view.remove(ii);
+                }
+            }
+        };
+        writer.start();
+        try {
+            // Every removal must be of an item the subscriber has seen, in
+            // the snapshot or added since.
+            for (int ii = 0; ii < 20000; ii++) {
+                Checker checker = new Checker();
+                view.publisher(true).subscribe(checker);
+                checker.subscription.cancel();
+                Assert.assertNull(checker.error, checker.error);
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    private static class Checker implements Flow.Subscriber<LookupEvent<Integer>> {
+        private final Map<Integer, Integer> held = new HashMap<Integer, Integer>();
+        Flow.Subscription subscription;
+        volatile String error;
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        public synchronized void onNext(LookupEvent<Integer> item) {
+            for (Integer t : item.removed()) {
+                Integer count = held.get(t);
+                if (count == null) {
+                    error = "Removed " + t + " which was never added";
+                } else if (count == 1) {
+                    held.remove(t);
+                } else {
+                    held.put(t, count - 1);
+                }
+            }
+            for (Integer t : item.added()) {
+                Integer count = held.get(t);
+                held.put(t, count == null ? 1 : count + 1);
+            }
+        }
+
+        public void onError(Throwable throwable) {
+            error = throwable.toString();
+        }
+
+        public void onComplete() {
+        }
+    }
+
+    @Test
+    public void testCancel() {
+        Lookup l = new Lookup();
+        View<String> view = l.getView(String.class);
+        Recorder<String> recorder = new Recorder<String>();
+        view.publisher().subscribe(recorder);
+        Assert.assertEquals(1, l.registrations());
+
+        recorder.subscription.request(10);
+        recorder.subscription.cancel();
+        view.add("Badger");
+        Assert.assertTrue(recorder.events.isEmpty());
+        Assert.assertEquals(0, l.registrations());
+    }
+
+    @Test
+    public void testInvalidRequest() {
+        Lookup l = new Lookup();
+        Recorder<String> recorder = new Recorder<String>();
+        l.getView(String.class).publisher().subscribe(recorder);
+        recorder.subscription.request(0);
+        Assert.assertTrue(recorder.error instanceof IllegalArgumentException);
+        Assert.assertEquals(0, l.registrations());
+        Assert.assertEquals(Collections.emptyList(), recorder.events);
+    }
+}
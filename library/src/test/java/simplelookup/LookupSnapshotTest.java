@@ -0,0 +1,97 @@
+package simplelookup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import simplelookup.listener.LookupDeltaListener;
+
+public class LookupSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LookupSnapshot snapshot = new LookupSnapshot()
+            .codec(String.class, Codec.STRING)
+            .codec(Integer.class, Codec.INTEGER);
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Lookup l = new Lookup();
+        l.getView(String.class).addAll(Arrays.asList("Badger", "Ferret", "Badger", null));
+        l.getView(Integer.class).add(42);
+        // No codec, so not saved.
+        l.getView(Long.class).add(7L);
+        Path file = folder.getRoot().toPath().resolve("lookup.snapshot");
+        Assert.assertEquals(2, snapshot.write(l, file));
+
+        Lookup restored = new Lookup();
+        Assert.assertEquals(2, snapshot.restore(restored, file));
+        Assert.assertEquals(4, restored.getView(String.class).size());
+        Assert.assertEquals(
+                sorted(l.getView(String.class).list()),
+                sorted(restored.getView(String.class).list()));
+        Assert.assertEquals(Integer.valueOf(42), restored.getView(Integer.class).first());
+        Assert.assertTrue(restored.getView(Long.class).isEmpty());
+        Assert.assertFalse(Files.exists(file.resolveSibling("lookup.snapshot.tmp")));
+    }
+
+    @Test
+    public void testDecodedOnFirstQuery() throws IOException {
+        Lookup l = new Lookup();
+        l.getView(String.class).addAll(Arrays.asList("Badger", "Ferret"));
+        Path file = folder.getRoot().toPath().resolve("lookup.snapshot");
+        snapshot.write(l, file);
+
+        Lookup restored = new Lookup();
+        final List<Collection<String>> added = new LinkedList<Collection<String>>();
+        restored.register(String.class, new LookupDeltaListener<String>() {
+            public void resultAdded(Collection<String> additions) {
+                added.add(additions);
+            }
+            public void resultRemoved(Collection<String> removals) {}
+        });
+        snapshot.restore(restored, file);
+        Assert.assertTrue(added.isEmpty());
+
+        Assert.assertEquals(2, restored.getView(Object.class).size());
+        Assert.assertEquals(1, added.size());
+        Assert.assertEquals(2, added.get(0).size());
+    }
+
+    @Test
+    public void testOrder() throws IOException {
+        Lookup l = new Lookup();
+        l.getView(String.class).ordered();
+        l.getView(String.class).addAll(Arrays.asList("Stoat", "Badger", "Stoat", "Ferret"));
+        Path file = folder.getRoot().toPath().resolve("lookup.snapshot");
+        snapshot.write(l, file);
+
+        Lookup restored = new Lookup();
+        restored.getView(String.class).ordered();
+        snapshot.restore(restored, file);
+        Assert.assertEquals(l.getView(String.class).list(), restored.getView(String.class).list());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotASnapshot() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("other");
+        Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        snapshot.restore(new Lookup(), file);
+    }
+
+    private static List<String> sorted(Collection<String> items) {
+        List<String> r = new LinkedList<String>(items);
+        r.sort(Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+        return r;
+    }
+}
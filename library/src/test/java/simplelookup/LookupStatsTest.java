@@ -0,0 +1,106 @@
+package simplelookup;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collection;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplelookup.Lookup.View;
+import simplelookup.listener.LookupBasicListener;
+
+public class LookupStatsTest {
+
+    private static class SlowListener implements LookupBasicListener<Object> {
+        public void resultChanged(Collection<Object> result) {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        Lookup l = new Lookup();
+        l.getView(String.class).add("Badger");
+        Assert.assertNull(l.stats());
+    }
+
+    @Test
+    public void testCounts() {
+        Lookup l = new Lookup();
+        LookupStats stats = l.enableStats();
+        Assert.assertSame(stats, l.enableStats());
+        l.register(String.class, new LookupBasicListener<String>() {
+            public void resultChanged(Collection<String> result) {}
+        });
+        l.register(Object.class, new SlowListener());
+
+        View<String> view = l.getView(String.class);
+        view.addAll(Arrays.asList("Badger", "Ferret", "Badger"));
+        view.remove("Ferret");
+        l.batch().add(String.class, "Stoat").add(Integer.class, 1).commit();
+
+        ClassStats s = stats.of(String.class);
+        Assert.assertEquals(4, s.getAdds());
+        Assert.assertEquals(1, s.getRemoves());
+        Assert.assertEquals(3, s.getElements());
+        Assert.assertEquals(2, s.getDistinct());
+        Assert.assertEquals(2, s.getListeners());
+        // Two listeners notified of three changes.
+        Assert.assertEquals(6, s.getNotifications());
+        Assert.assertEquals(SlowListener.class.getName(), s.getSlowestListener());
+        Assert.assertTrue(s.getListenerTimeMax() >= 5000000L);
+        Assert.assertTrue(s.getNotificationLatencyMax() >= s.getListenerTimeMax());
+        Assert.assertEquals(1, stats.of(Integer.class).getAdds());
+
+        l.getView(Object.class).list();
+        Assert.assertEquals(1, stats.of(Object.class).getMaterializations());
+        Assert.assertEquals(4, stats.of(Object.class).getMaterializedSizeMax());
+
+        l.disableStats();
+        Assert.assertNull(l.stats());
+    }
+
+    @Test
+    public void testHistogram() {
+        Histogram h = new Histogram();
+        Assert.assertEquals(0, h.percentile(50));
+        for (int ii = 1; ii <= 100; ii++) {
+            h.record(ii);
+        }
+        Assert.assertEquals(100, h.count());
+        Assert.assertEquals(50.5, h.mean(), 0.001);
+        Assert.assertEquals(100, h.max());
+        // Within a factor of two of the true percentile.
+        long median = h.percentile(50);
+        Assert.assertTrue(median >= 50 && median < 100);
+        Assert.assertEquals(100, h.percentile(100));
+    }
+
+    @Test
+    public void testMBeans() throws Exception {
+        Lookup l = new Lookup();
+        LookupStats stats = l.enableStats();
+        l.getView(String.class).add("Badger");
+        stats.registerMBeans("test");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("simplelookup:type=Lookup,name=\"test\",class=\"java.lang.String\"");
+        Assert.assertEquals(1L, server.getAttribute(name, "Adds"));
+        Assert.assertEquals(1, server.getAttribute(name, "Elements"));
+
+        // Classes first seen after registering are published too.
+        l.getView(Integer.class).add(1);
+        Assert.assertTrue(server.isRegistered(new ObjectName("simplelookup:type=Lookup,name=\"test\",class=\"java.lang.Integer\"")));
+
+        l.disableStats();
+        Assert.assertFalse(server.isRegistered(name));
+    }
+}
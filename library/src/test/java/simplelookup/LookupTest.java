@@ -1,11 +1,21 @@
 package simplelookup;
 
 import simplelookup.listener.LookupListener;
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 import simplelookup.Lookup.View;
 import simplelookup.listener.LookupBasicListener;
@@ -55,6 +65,122 @@ public class LookupTest {
         Assert.assertEquals(0, v1.list().size());
     }
 
+    @Test
+    public void testListSnapshot() {
+        Lookup l = new Lookup();
+        View<Object> objects = l.getView(Object.class);
+        View<String> strings = l.getView(String.class);
+        strings.add("Badger");
+
+        // Unchanged contents are served from the same snapshot.
+        Collection<Object> before = objects.list();
+        Assert.assertSame(before, objects.list());
+
+        // A change to any assignable class publishes a new one.
+        l.getView(Integer.class).add(1);
+        Collection<Object> after = objects.list();
+        Assert.assertEquals(1, before.size());
+        Assert.assertEquals(2, after.size());
+        Assert.assertEquals(2, objects.size());
+        Assert.assertEquals(1, strings.size());
+    }
+
+    @Test
+    public void testResultHandle() {
+        Lookup l = new Lookup();
+        View<Object> objects = l.getView(Object.class);
+        ResultHandle<Object> handle = objects.handle();
+        Assert.assertSame(handle, l.getView(Object.class).handle());
+        Assert.assertTrue(handle.isEmpty());
+        Assert.assertNull(handle.first());
+
+        View<String> strings = l.getView(String.class);
+        strings.add("Badger");
+        Assert.assertEquals(1, handle.size());
+        Assert.assertEquals("Badger", handle.first());
+
+        // The head is kept until it is removed.
+        l.getView(Integer.class).add(1);
+        Assert.assertEquals("Badger", handle.first());
+        strings.remove("Badger");
+        Assert.assertEquals(1, handle.first());
+        Assert.assertEquals(1, handle.size());
+
+        l.batch().add(String.class, "Ferret").add(Long.class, 2L).remove(Integer.class, 1).commit();
+        Assert.assertEquals(2, handle.size());
+        Assert.assertTrue(handle.list().contains(handle.first()));
+    }
+
+    @Test
+    public void testResultHandleConsistent() {
+        Random random = new Random(42);
+        Lookup l = new Lookup();
+        List<View<Object>> views = new LinkedList<View<Object>>();
+        for (Class c : new Class[]{Object.class, Number.class, Integer.class, Long.class, Comparable.class}) {
+            views.add(l.getView(c));
+        }
+        View<Integer> ints = l.getView(Integer.class);
+        View<Long> longs = l.getView(Long.class);
+        for (int ii = 0; ii < 2000; ii++) {
+            int value = random.nextInt(20);
+            switch (random.nextInt(5)) {
+                case 0: ints.add(value); break;
+                case 1: ints.remove(value); break;
+                case 2: longs.add((long) value); break;
+                case 3: longs.removeAll(Arrays.asList((long) value, (long) value + 1)); break;
+                default: longs.replaceAllWith((long) value); break;
+            }
+            for (View<Object> view : views) {
+                Collection<Object> list = view.list();
+                Assert.assertEquals(list.size(), view.size());
+                Object first = view.first();
+                Assert.assertEquals(list.isEmpty(), first == null);
+                Assert.assertTrue(first == null || list.contains(first));
+            }
+        }
+    }
+
+    @Test
+    public void testSlot() {
+        final List<String> changes = new LinkedList<String>();
+        Lookup l = new Lookup();
+        l.register(CharSequence.class, new LookupBasicListener<CharSequence>() {
+            public void resultChanged(Collection<CharSequence> result) {
+                changes.add(result.isEmpty() ? "" : result.iterator().next().toString());
+            }
+        });
+        Slot<String> slot = l.slot(String.class);
+        Assert.assertNull(slot.get());
+
+        slot.set("Badger");
+        Assert.assertEquals("Badger", slot.get());
+        Assert.assertEquals(Arrays.asList("Badger"), l.getView(CharSequence.class).list());
+
+        // Compared by identity against the current value.
+        Assert.assertFalse(slot.compareAndSet(new String("Badger"), "Ferret"));
+        Assert.assertTrue(slot.compareAndSet(slot.get(), "Ferret"));
+        Assert.assertEquals("Ferret", slot.get());
+
+        // Changes made through a View are seen by the Slot.
+        l.getView(String.class).replaceAllWith("Stoat");
+        Assert.assertEquals("Stoat", slot.get());
+
+        slot.clear();
+        Assert.assertNull(slot.get());
+        Assert.assertTrue(l.getView(String.class).isEmpty());
+        Assert.assertEquals(Arrays.asList("Badger", "Ferret", "Stoat", ""), changes);
+    }
+
+    @Test
+    public void testSlotProvider() {
+        Lookup l = new Lookup();
+        l.getView(String.class).addProvider(() -> "Badger");
+        Slot<String> slot = l.slot(String.class);
+        Assert.assertEquals("Badger", slot.get());
+        Assert.assertTrue(slot.compareAndSet("Badger", "Ferret"));
+        Assert.assertEquals(Arrays.asList("Ferret"), l.getView(String.class).list());
+    }
+
     @Test
     public void testViewHierarchy() {
         Lookup l = new Lookup();
@@ -76,6 +202,47 @@ public class LookupTest {
         Assert.assertEquals(1, objects.size());
     }
 
+    @Test
+    public void testViewInterfaces() {
+        Lookup l = new Lookup();
+        View<CharSequence> sequences = l.getView(CharSequence.class);
+        Assert.assertEquals(0, sequences.size());
+
+        // Types stored after the View was first queried are still found.
+        l.getView(String.class).add("Badger");
+        l.getView(StringBuilder.class).add(new StringBuilder("Ferret"));
+        Assert.assertEquals(2, sequences.size());
+        Assert.assertEquals(2, sequences.list().size());
+
+        // Interface keyed entries are visible through Object.
+        l.getView(Runnable.class).add(new Runnable() {
+            public void run() {}
+        });
+        Assert.assertEquals(3, l.getView(Object.class).size());
+        Assert.assertEquals(0, l.getView(Integer.class).size());
+    }
+
+    @Test
+    public void testViewArrays() {
+        Lookup l = new Lookup();
+        l.getView(String[].class).add(new String[]{"Badger"});
+        Assert.assertEquals(1, l.getView(Object[].class).size());
+        Assert.assertEquals(1, l.getView(CharSequence[].class).size());
+        Assert.assertEquals(1, l.getView(Cloneable.class).size());
+        Assert.assertEquals(0, l.getView(Integer[].class).size());
+    }
+
+    @Test
+    public void testFirstAfterRemove() {
+        Lookup l = new Lookup();
+        View<String> strings = l.getView(String.class);
+        strings.add("Badger");
+        strings.remove("Badger");
+        Assert.assertNull(strings.first());
+        l.getView(Object.class).add("Ferret");
+        Assert.assertEquals("Ferret", l.getView(Object.class).first());
+    }
+
     @Test
     public void testMultiple() {
         Lookup l = new Lookup();
@@ -94,6 +261,40 @@ public class LookupTest {
         Assert.assertEquals(0, view.size());
     }
 
+    @Test
+    public void testListenerChangesOtherClass() {
+        // A listener may change another class on the mutating thread.
+        Lookup l = new Lookup();
+        final View<Integer> lengths = l.getView(Integer.class);
+        l.register(String.class, new LookupDeltaListener<String>() {
+            public void resultAdded(Collection<String> additions) {
+                for (String s : additions) lengths.add(s.length());
+            }
+            public void resultRemoved(Collection<String> removals) {}
+        });
+        l.getView(String.class).addAll(Arrays.asList("Badger", "Stoat"));
+        Assert.assertEquals(Arrays.asList(6, 5), new LinkedList<Integer>(lengths.list()));
+    }
+
+    @Test
+    public void testRemoveAllMissing() {
+        Lookup l = new Lookup();
+        View<String> view = l.getView(String.class);
+        view.addAll(Arrays.asList("Badger", "Ferret"));
+        final List<Collection<String>> removed = new LinkedList<Collection<String>>();
+        l.register(String.class, new LookupDeltaListener<String>() {
+            public void resultAdded(Collection<String> additions) {}
+            public void resultRemoved(Collection<String> removals) {
+                removed.add(new LinkedList<String>(removals));
+            }
+        });
+
+        // Only the items held are reported, and nothing if none were.
+        view.removeAll(Arrays.asList("Ferret", "Stoat"));
+        view.removeAll(Arrays.asList("Stoat", "Weasel"));
+        Assert.assertEquals(Arrays.asList(Arrays.asList("Ferret")), removed);
+    }
+
     @Test
     public void testRegister() {
         final List<String> total = new LinkedList<String>();
@@ -124,6 +325,56 @@ public class LookupTest {
         Assert.assertEquals(0, total.size());
     }
 
+    @Test
+    public void testRegisterAfterMutation() {
+        final List<Object> seen = new LinkedList<Object>();
+        Lookup l = new Lookup();
+        View<String> strings = l.getView(String.class);
+        strings.add("Badger");
+
+        // Registering on a super class must reach an existing View.
+        LookupListener<Object> listener = new LookupDeltaListener<Object>() {
+            public void resultAdded(Collection<Object> additions) {
+                seen.addAll(additions);
+            }
+            public void resultRemoved(Collection<Object> removals) {}
+        };
+        l.register(Object.class, listener);
+        strings.add("Ferret");
+        Assert.assertEquals(Arrays.asList("Ferret"), seen);
+
+        l.deregister(Object.class, listener);
+        strings.add("Stoat");
+        Assert.assertEquals(1, seen.size());
+    }
+
+    @Test
+    public void testBasicListenersShareSnapshot() {
+        final List<Collection<String>> results = new LinkedList<Collection<String>>();
+        LookupBasicListener<String> listener = new LookupBasicListener<String>() {
+            public void resultChanged(Collection<String> result) {
+                results.add(result);
+            }
+        };
+        Lookup l = new Lookup();
+        l.register(String.class, listener);
+        l.register(String.class, listener);
+        View<String> strings = l.getView(String.class);
+
+        strings.add("Badger");
+        Assert.assertEquals(2, results.size());
+        Assert.assertSame(results.get(0), results.get(1));
+        Assert.assertSame(results.get(0), strings.list());
+
+        // Replacing the contents with the same item reuses the snapshot.
+        strings.replaceAllWith("Badger");
+        Assert.assertSame(results.get(0), results.get(3));
+
+        strings.add("Ferret");
+        Assert.assertNotSame(results.get(0), results.get(5));
+        Assert.assertEquals(2, results.get(5).size());
+    }
+
     @Test
     public void testRegisterDelta() {
         final List<String> strings = new LinkedList<String>();
@@ -189,4 +440,304 @@ public class LookupTest {
         Assert.assertEquals(1, aList.size());
         Assert.assertEquals(1, eaList.size());
     }
-}
\ No newline at end of file
+
+    private interface Named {}
+    private class NamedEA extends EA implements Named {}
+
+    @Test
+    public void testListenerInterfaces() {
+        final List<Named> named = new LinkedList<Named>();
+        final List<CharSequence> sequences = new LinkedList<CharSequence>();
+
+        Lookup l = new Lookup();
+        l.register(Named.class, new LookupBasicListener<Named>() {
+            public void resultChanged(Collection<Named> result) {
+                named.addAll(result);
+            }
+        });
+        l.register(CharSequence.class, new LookupDeltaListener<CharSequence>() {
+            public void resultAdded(Collection<CharSequence> additions) {
+                sequences.addAll(additions);
+            }
+            public void resultRemoved(Collection<CharSequence> removals) {
+                sequences.removeAll(removals);
+            }
+        });
+
+        // Interfaces implemented by a super class are also matched.
+        l.getView(NamedEA.class).add(new NamedEA());
+        Assert.assertEquals(1, named.size());
+        l.getView(EA.class).add(new EA());
+        Assert.assertEquals(1, named.size());
+
+        l.getView(String.class).add("Badger");
+        l.getView(StringBuilder.class).add(new StringBuilder("Ferret"));
+        Assert.assertEquals(2, sequences.size());
+        l.getView(String.class).remove("Badger");
+        Assert.assertEquals(1, sequences.size());
+    }
+
+    @Test
+    public void testConcurrentViews() throws Exception {
+        final Lookup l = new Lookup();
+        final int threads = 8;
+        final int count = 2000;
+        final AtomicInteger notified = new AtomicInteger();
+        l.register(Object.class, new LookupDeltaListener<Object>() {
+            public void resultAdded(Collection<Object> additions) {
+                notified.addAndGet(additions.size());
+            }
+            public void resultRemoved(Collection<Object> removals) {}
+        });
+
+        // Half the threads share a class, the rest each have their own.
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new LinkedList<Future<?>>();
+        for (int ii = 0; ii < threads; ii++) {
+            final Class type = ii % 2 == 0 ? Integer.class : threadTypes[ii / 2];
+            futures.add(executor.submit(new Callable<Object>() {
+                public Object call() {
+                    View view = l.getView(type);
+                    for (int jj = 0; jj < count; jj++) {
+                        view.add(type == Integer.class ? Integer.valueOf(jj) : (Object) ("" + jj));
+                        l.getView(Object.class).size();
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        executor.shutdown();
+
+        Assert.assertEquals(threads * count, l.getView(Object.class).size());
+        Assert.assertEquals(threads * count / 2, l.getView(Integer.class).size());
+        Assert.assertEquals(threads * count, notified.get());
+    }
+
+    @Test
+    public void testViewShared() {
+        Lookup l = new Lookup();
+        Assert.assertSame(l.getView(String.class), l.getView(String.class));
+        Assert.assertNotSame(l.getView(String.class), new Lookup().getView(String.class));
+
+        // The delta passed to a listener is not changed by later mutations.
+        final List<Collection<String>> added = new LinkedList<Collection<String>>();
+        l.register(String.class, new LookupDeltaListener<String>() {
+            public void resultAdded(Collection<String> additions) {
+                added.add(additions);
+            }
+            public void resultRemoved(Collection<String> removals) {}
+        });
+        l.getView(String.class).addAll(Arrays.asList("Badger", "Ferret"));
+        l.getView(String.class).add("Stoat");
+        Assert.assertEquals(Arrays.asList("Badger", "Ferret"), added.get(0));
+        Assert.assertEquals(Arrays.asList("Stoat"), added.get(1));
+    }
+
+    @Test
+    public void testRegistration() {
+        Lookup l = new Lookup();
+        final List<String> added = new LinkedList<String>();
+        LookupDeltaListener<String> listener = new LookupDeltaListener<String>() {
+            public void resultAdded(Collection<String> additions) {
+                added.addAll(additions);
+            }
+            public void resultRemoved(Collection<String> removals) {}
+        };
+        Registration first = l.register(String.class, listener);
+        Registration second = l.register(String.class, listener);
+        l.getView(String.class).add("Badger");
+        Assert.assertEquals(2, added.size());
+
+        first.close();
+        first.close();
+        l.getView(String.class).add("Ferret");
+        Assert.assertEquals(3, added.size());
+
+        try (Registration r = second) {
+            Assert.assertEquals(1, l.registrations());
+        }
+        l.getView(String.class).add("Stoat");
+        Assert.assertEquals(3, added.size());
+        Assert.assertEquals(0, l.registrations());
+    }
+
+    @Test
+    public void testWeakListener() throws InterruptedException {
+        Lookup l = new Lookup();
+        final AtomicInteger notified = new AtomicInteger();
+        LookupBasicListener<String> listener = new LookupBasicListener<String>() {
+            public void resultChanged(Collection<String> result) {
+                notified.incrementAndGet();
+            }
+        };
+        l.registerWeak(String.class, listener);
+        l.getView(String.class).add("Badger");
+        Assert.assertEquals(1, notified.get());
+
+        // Deregistering finds the weakly held listener.
+        l.deregister(String.class, listener);
+        Assert.assertEquals(0, l.registrations());
+
+        l.registerWeak(String.class, listener);
+        WeakReference<Object> ref = new WeakReference<Object>(listener);
+        listener = null;
+        for (int ii = 0; ii < 100 && ref.get() != null; ii++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assume.assumeTrue(ref.get() == null);
+
+        // The collected listener is removed on the next change.
+        for (int ii = 0; ii < 100 && l.registrations() > 0; ii++) {
+            l.getView(String.class).add("Ferret");
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, l.registrations());
+        Assert.assertEquals(1, notified.get());
+    }
+
+    @Test
+    public void testOrdered() {
+        Lookup l = new Lookup();
+        View<String> view = l.getView(String.class);
+        view.addAll(Arrays.asList("Stoat", "Badger"));
+        Assert.assertNotNull(view.first());
+
+        OrderedView<String> ordered = view.ordered(String.CASE_INSENSITIVE_ORDER);
+        view.add("ferret");
+        view.add("Aardvark");
+        Assert.assertEquals(Arrays.asList("Aardvark", "Badger", "ferret", "Stoat"), view.list());
+        Assert.assertEquals("Aardvark", view.first());
+        Assert.assertEquals("Stoat", ordered.last());
+        Assert.assertEquals(Arrays.asList("Badger", "ferret"), ordered.range("B", "G"));
+        Assert.assertEquals(Arrays.asList("Stoat", "ferret"), ordered.last(2));
+
+        view.remove("Aardvark");
+        Assert.assertEquals("Badger", view.first());
+        Assert.assertEquals("Badger", ordered.first());
+        Assert.assertEquals(Arrays.asList("Badger", "ferret", "Stoat"), l.getView(CharSequence.class).list());
+    }
+
+    @Test
+    public void testProvider() {
+        Lookup l = new Lookup();
+        final AtomicInteger built = new AtomicInteger();
+        final List<String> added = new LinkedList<String>();
+        l.register(String.class, new LookupDeltaListener<String>() {
+            public void resultAdded(Collection<String> additions) {
+                added.addAll(additions);
+            }
+            public void resultRemoved(Collection<String> removals) {}
+        });
+        View<String> view = l.getView(String.class);
+        view.add("Badger");
+        view.addProvider(() -> {
+            built.incrementAndGet();
+            return "Ferret";
+        });
+        Assert.assertEquals(0, built.get());
+        Assert.assertEquals(Arrays.asList("Badger"), added);
+
+        // Materialized by the first query of any View which includes it.
+        Assert.assertEquals(Arrays.asList("Badger", "Ferret"), l.getView(CharSequence.class).list());
+        Assert.assertEquals(1, built.get());
+        Assert.assertEquals(Arrays.asList("Badger", "Ferret"), added);
+        Assert.assertEquals(2, view.size());
+        Assert.assertEquals(1, built.get());
+
+        // A replacement discards providers not yet materialized.
+        view.addProvider(() -> "Stoat");
+        view.replaceAllWith("Weasel");
+        Assert.assertEquals(Arrays.asList("Weasel"), view.list());
+    }
+
+    @Test
+    public void testProviderFailure() {
+        Lookup l = new Lookup();
+        final AtomicInteger calls = new AtomicInteger();
+        l.getView(String.class).addProvider(() -> {
+            if (calls.incrementAndGet() == 1) throw new IllegalStateException("Badger");
+            return "Ferret";
+        });
+        try {
+            l.getView(String.class).first();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Badger", e.getMessage());
+        }
+        Assert.assertEquals("Ferret", l.getView(String.class).first());
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testProviderConcurrent() throws Exception {
+        final Lookup l = new Lookup();
+        final AtomicInteger built = new AtomicInteger();
+        l.getView(String.class).addProvider(() -> {
+            built.incrementAndGet();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "Badger";
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> futures = new LinkedList<Future<Integer>>();
+        for (int ii = 0; ii < 8; ii++) {
+            futures.add(executor.submit(new Callable<Integer>() {
+                public Integer call() {
+                    return l.getView(String.class).list().size();
+                }
+            }));
+        }
+        for (Future<Integer> f : futures) {
+            Assert.assertEquals(Integer.valueOf(1), f.get());
+        }
+        executor.shutdown();
+        Assert.assertEquals(1, built.get());
+    }
+
+    @Test
+    public void testProviderElsewhereDoesNotLock() throws Exception {
+        // A provider waiting in another class leaves String reads lock free.
+        final Lookup l = new Lookup();
+        l.getView(Integer.class).addProvider(() -> 42);
+        final View<String> strings = l.getView(String.class);
+        strings.add("Badger");
+        Assert.assertEquals(1, strings.list().size());
+        final Store<String> store = l.store(String.class);
+        final CountDownLatch inside = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        executor.submit(new Callable<Void>() {
+            public Void call() throws InterruptedException {
+                synchronized (store) {
+                    inside.countDown();
+                    release.await();
+                }
+                return null;
+            }
+        });
+        Assert.assertTrue(inside.await(5, TimeUnit.SECONDS));
+        Future<String> read = executor.submit(new Callable<String>() {
+            public String call() {
+                strings.list();
+                strings.size();
+                return l.slot(String.class).get();
+            }
+        });
+        try {
+            Assert.assertEquals("Badger", read.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        Assert.assertEquals(Integer.valueOf(42), l.getView(Integer.class).first());
+    }
+
+    private static final Class[] threadTypes = {String.class, CharSequence.class, Comparable.class, Object.class};
+}
@@ -0,0 +1,133 @@
+package simplelookup;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import simplelookup.Lookup.View;
+import simplelookup.listener.LookupBasicListener;
+
+public class QuarantineTest {
+
+    private final List<Throwable> reported = new LinkedList<Throwable>();
+    private Thread.UncaughtExceptionHandler handler;
+
+    @Before
+    public void setUp() {
+        handler = Thread.currentThread().getUncaughtExceptionHandler();
+        Thread.currentThread().setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            public void uncaughtException(Thread t, Throwable e) {
+                reported.add(e);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Thread.currentThread().setUncaughtExceptionHandler(handler);
+    }
+
+    private static class Sleeper extends Recorder<String> {
+        volatile long millis;
+
+        Sleeper(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public void resultAdded(Collection<String> additions) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.resultAdded(additions);
+        }
+    }
+
+    /**
+     * Executor which only runs tasks when asked to.
+     */
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new LinkedList<Runnable>();
+
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    @Test
+    public void testExceptionIsolated() {
+        Lookup l = new Lookup();
+        l.register(String.class, new LookupBasicListener<String>() {
+            public void resultChanged(Collection<String> result) {
+                throw new IllegalStateException("Badger");
+            }
+        });
+        Recorder<String> recorder = new Recorder<String>();
+        l.register(String.class, recorder);
+
+        l.getView(String.class).add("Ferret");
+        l.batch().add(String.class, "Stoat").commit();
+        Assert.assertEquals(2, recorder.added.size());
+        Assert.assertEquals(2, reported.size());
+        Assert.assertEquals("Badger", reported.get(0).getMessage());
+    }
+
+    @Test
+    public void testSlowListenerQuarantined() {
+        ManualExecutor executor = new ManualExecutor();
+        Quarantine quarantine = new Quarantine(5, TimeUnit.MILLISECONDS, executor);
+        Lookup l = new Lookup(quarantine);
+        Sleeper slow = new Sleeper(50);
+        Recorder<String> fast = new Recorder<String>();
+        l.register(String.class, slow);
+        l.register(String.class, fast);
+
+        View<String> view = l.getView(String.class);
+        view.add("Badger");
+        Assert.assertTrue(quarantine.isQuarantined(slow));
+        Assert.assertFalse(quarantine.isQuarantined(fast));
+
+        // Later changes reach the slow listener only through the slow lane.
+        slow.millis = 0;
+        view.add("Ferret");
+        view.add("Stoat");
+        Assert.assertEquals(3, fast.added.size());
+        Assert.assertEquals(1, slow.added.size());
+        executor.runAll();
+        Assert.assertEquals(3, slow.added.size());
+        Assert.assertEquals("Stoat", slow.added.get(2));
+
+        // Deregistering releases it.
+        l.deregister(String.class, slow);
+        Assert.assertFalse(quarantine.isQuarantined(slow));
+    }
+
+    @Test
+    public void testListenerBudget() {
+        ManualExecutor executor = new ManualExecutor();
+        Quarantine quarantine = new Quarantine(1, TimeUnit.MILLISECONDS, executor);
+        Lookup l = new Lookup(quarantine);
+        Sleeper sleeper = new Sleeper(10);
+        quarantine.setBudget(sleeper, 1, TimeUnit.SECONDS);
+        l.register(String.class, sleeper);
+
+        l.getView(String.class).add("Badger");
+        Assert.assertFalse(quarantine.isQuarantined(sleeper));
+        Assert.assertEquals(1, sleeper.added.size());
+    }
+}
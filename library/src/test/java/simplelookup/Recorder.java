@@ -0,0 +1,42 @@
+package simplelookup;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import simplelookup.listener.LookupDeltaListener;
+
+/**
+ * Records the callbacks made to a delta listener, both as the items added and
+ * removed and as the collections passed to each callback.
+ */
+class Recorder<T> implements LookupDeltaListener<T> {
+    // Every item, in the order they were received
+    final List<T> added = new LinkedList<T>();
+    final List<T> removed = new LinkedList<T>();
+    // The items of each callback
+    final List<Collection<T>> additions = new LinkedList<Collection<T>>();
+    final List<Collection<T>> removals = new LinkedList<Collection<T>>();
+    // "+item" and "-item" for each item, in the order they were received
+    private final List<String> events = new LinkedList<String>();
+
+    public synchronized void resultAdded(Collection<T> items) {
+        additions.add(items);
+        added.addAll(items);
+        for (T t : items) events.add("+" + t);
+    }
+
+    public synchronized void resultRemoved(Collection<T> items) {
+        removals.add(items);
+        removed.addAll(items);
+        for (T t : items) events.add("-" + t);
+    }
+
+    /**
+     * @return A copy of the items added and removed, in order, as "+item"
+     * and "-item".
+     */
+    synchronized List<String> events() {
+        return new LinkedList<String>(events);
+    }
+}
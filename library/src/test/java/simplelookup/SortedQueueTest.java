@@ -0,0 +1,87 @@
+package simplelookup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SortedQueueTest {
+
+    @Test
+    public void testOrdered() {
+        SortedQueue<Integer> queue = new SortedQueue<Integer>(Comparator.<Integer>naturalOrder());
+        for (int i : new int[]{5, 1, 4, 1, 3}) {
+            queue.add(i);
+        }
+        Assert.assertEquals(Arrays.asList(1, 1, 3, 4, 5), queue.list());
+        Assert.assertEquals(Integer.valueOf(1), queue.first());
+        Assert.assertEquals(Integer.valueOf(5), queue.last());
+        Assert.assertEquals(Arrays.asList(1, 1), queue.head(2));
+        Assert.assertEquals(Arrays.asList(5, 4), queue.tail(2));
+        Assert.assertEquals(Arrays.asList(3, 4), queue.range(2, 5));
+        Assert.assertEquals(Arrays.asList(1, 1, 3), queue.range(1, 4));
+
+        Assert.assertTrue(queue.remove(1));
+        Assert.assertFalse(queue.remove(2));
+        Assert.assertEquals(Arrays.asList(1, 3, 4, 5), queue.list());
+        Assert.assertEquals(4, queue.size());
+    }
+
+    @Test
+    public void testInsertionOrder() {
+        SortedQueue<String> queue = new SortedQueue<String>(null);
+        for (String s : new String[]{"Stoat", "Badger", "Ferret", "Badger"}) {
+            queue.add(s);
+        }
+        // The oldest occurrence is removed first.
+        queue.remove("Badger");
+        Assert.assertEquals(Arrays.asList("Stoat", "Ferret", "Badger"), queue.list());
+        Assert.assertTrue(queue.matches(queue.list()));
+        queue.clear();
+        Assert.assertNull(queue.first());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testRejectedByComparator() {
+        Lookup l = new Lookup();
+        Lookup.View<Integer> view = l.getView(Integer.class);
+        view.ordered(Comparator.<Integer>naturalOrder());
+        view.add(2);
+        try {
+            view.add(null);
+            Assert.fail();
+        } catch (NullPointerException e) {
+            // The Comparator does not accept null.
+        }
+        // Nothing was counted, so the class is still usable.
+        view.remove(null);
+        view.add(1);
+        Assert.assertEquals(Arrays.asList(1, 2), view.list());
+        Assert.assertEquals(2, view.size());
+    }
+
+    @Test
+    public void testAgainstModel() {
+        Random random = new Random(7);
+        SortedQueue<Integer> queue = new SortedQueue<Integer>(Comparator.<Integer>reverseOrder());
+        List<Integer> model = new ArrayList<Integer>();
+        for (int ii = 0; ii < 10000; ii++) {
+            Integer value = random.nextInt(100);
+            if (random.nextBoolean()) {
+                queue.add(value);
+                model.add(value);
+            } else {
+                Assert.assertEquals(model.remove(value), queue.remove(value));
+            }
+        }
+        Collections.sort(model, Comparator.<Integer>reverseOrder());
+        Assert.assertEquals(model, queue.list());
+        Assert.assertEquals(model.size(), queue.size());
+    }
+}
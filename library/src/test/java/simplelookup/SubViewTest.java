@@ -0,0 +1,143 @@
+package simplelookup;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplelookup.Lookup.View;
+import simplelookup.listener.LookupBasicListener;
+
+public class SubViewTest {
+
+    @Test
+    public void testWhere() {
+        Lookup l = new Lookup();
+        View<String> view = l.getView(String.class);
+        view.addAll(Arrays.asList("Badger", "Ferret", "Bat"));
+
+        FilteredView<String> b = view.where(s -> s.startsWith("B"));
+        Assert.assertEquals(Arrays.asList("Badger", "Bat"), b.list());
+        Recorder<String> recorder = new Recorder<String>();
+        b.register(recorder);
+
+        view.add("Stoat");
+        view.add("Bear");
+        view.remove("Ferret");
+        view.remove("Bat");
+        Assert.assertEquals(Arrays.asList("Bear"), recorder.added);
+        Assert.assertEquals(Arrays.asList("Bat"), recorder.removed);
+        Assert.assertEquals(2, b.size());
+        Assert.assertTrue(b.list().containsAll(Arrays.asList("Badger", "Bear")));
+
+        b.close();
+        view.add("Bison");
+        Assert.assertEquals(2, b.size());
+        Assert.assertEquals(0, l.registrations());
+
+        // Counted from the matching items, without a snapshot.
+        FilteredView<String> z = view.where(s -> s.startsWith("Z"));
+        Assert.assertTrue(z.isEmpty());
+        view.addAll(Arrays.asList("Zebra", "Zebra", "Stoat"));
+        Assert.assertEquals(2, z.size());
+        view.removeAll(Arrays.asList("Zebra", "Zebra"));
+        Assert.assertEquals(0, z.size());
+        Assert.assertTrue(z.isEmpty());
+    }
+
+    @Test
+    public void testWhereAcrossClasses() {
+        Lookup l = new Lookup();
+        l.getView(Integer.class).addAll(Arrays.asList(1, 20));
+        FilteredView<Number> big = l.getView(Number.class).where(n -> n.longValue() > 10);
+        final List<Collection<Number>> results = new LinkedList<Collection<Number>>();
+        big.register(new LookupBasicListener<Number>() {
+            public void resultChanged(Collection<Number> result) {
+                results.add(result);
+            }
+        });
+
+        l.getView(Long.class).addAll(Arrays.asList(5L, 50L));
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(new HashSet<Number>(Arrays.asList(20, 50L)), new HashSet<Number>(results.get(0)));
+        Assert.assertEquals(2, big.size());
+    }
+
+    @Test
+    public void testIndexBy() {
+        Lookup l = new Lookup();
+        View<String> view = l.getView(String.class);
+        view.addAll(Arrays.asList("Badger", "Ferret", "Bat"));
+
+        KeyIndex<Character, String> byInitial = view.indexBy(s -> s.charAt(0));
+        Assert.assertEquals(Arrays.asList("Badger", "Bat"), byInitial.get('B'));
+        Assert.assertEquals("Ferret", byInitial.first('F'));
+        Assert.assertNull(byInitial.first('S'));
+        Assert.assertEquals(new HashSet<Character>(Arrays.asList('B', 'F')), byInitial.keys());
+
+        Recorder<String> recorder = new Recorder<String>();
+        byInitial.register('S', recorder);
+        view.add("Stoat");
+        view.add("Bear");
+        view.replaceAllWith(Arrays.asList("Stoat", "Weasel"));
+
+        Assert.assertEquals(Arrays.asList("Stoat", "Stoat"), recorder.added);
+        Assert.assertEquals(Arrays.asList("Stoat"), recorder.removed);
+        Assert.assertTrue(byInitial.get('B').isEmpty());
+        Assert.assertEquals(Arrays.asList("Stoat"), byInitial.get('S'));
+        Assert.assertEquals(new HashSet<Character>(Arrays.asList('S', 'W')), byInitial.keys());
+
+        byInitial.close();
+        Assert.assertEquals(0, l.registrations());
+    }
+
+    @Test
+    public void testIndexLargeBucket() {
+        Lookup l = new Lookup();
+        View<Integer> view = l.getView(Integer.class);
+        List<Integer> items = new LinkedList<Integer>();
+        for (int ii = 0; ii < 40000; ii++) items.add(ii);
+        view.addAll(items);
+
+        KeyIndex<Boolean, Integer> byParity = view.indexBy(i -> i % 2 == 0);
+        for (int ii = 0; ii < 1000; ii++) {
+            view.add(-1);
+            view.remove(-1);
+        }
+        Assert.assertEquals(20000, byParity.get(true).size());
+
+        // The snapshot for a key is reused until that key changes.
+        final List<Collection<Integer>> results = new LinkedList<Collection<Integer>>();
+        byParity.register(false, new LookupBasicListener<Integer>() {
+            public void resultChanged(Collection<Integer> result) {
+                results.add(result);
+            }
+        });
+        List<Integer> odd = byParity.get(false);
+        view.add(2);
+        Assert.assertSame(odd, byParity.get(false));
+        view.add(3);
+        view.add(3);
+        view.remove(3);
+        Assert.assertEquals(3, results.size());
+        Assert.assertEquals(20002, results.get(1).size());
+        Assert.assertEquals(20001, byParity.get(false).size());
+    }
+
+    @Test
+    public void testIndexNullKey() {
+        Lookup l = new Lookup();
+        View<String> view = l.getView(String.class);
+        KeyIndex<String, String> index = view.indexBy(s -> s.isEmpty() ? null : s);
+        view.add("");
+        view.add("Badger");
+        Assert.assertEquals(Arrays.asList(""), index.get(null));
+        Assert.assertTrue(index.keys().contains(null));
+        view.remove("");
+        Assert.assertTrue(index.get(null).isEmpty());
+    }
+}
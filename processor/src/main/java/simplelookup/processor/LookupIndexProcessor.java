@@ -0,0 +1,176 @@
+package simplelookup.processor;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import simplelookup.LookupService;
+
+/**
+ * Writes the index of {@link LookupService} classes read by
+ * {@code Lookup.loadIndex}. Each annotated class is checked to be
+ * instantiable and assignable to its services, and recorded by binary name, so
+ * nothing is loaded when the index is read.
+ */
+public class LookupIndexProcessor extends AbstractProcessor {
+    // Registered class names for each service class name, sorted so the
+    // index is the same for every build.
+    private final Map<String, Set<String>> index = new TreeMap<String, Set<String>>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(LookupService.class.getName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (Element e : round.getElementsAnnotatedWith(LookupService.class)) {
+            if (e.getKind() != ElementKind.CLASS) {
+                error(e, "@LookupService may only be applied to classes");
+                continue;
+            }
+            TypeElement type = (TypeElement) e;
+            if (check(type)) {
+                String name = binaryName(type);
+                for (TypeElement service : services(type)) {
+                    if (!isAssignable(type, service)) {
+                        error(e, type + " is not assignable to " + service);
+                        continue;
+                    }
+                    Set<String> names = index.get(binaryName(service));
+                    if (names == null) {
+                        names = new TreeSet<String>();
+                        index.put(binaryName(service), names);
+                    }
+                    names.add(name);
+                }
+            }
+        }
+        if (round.processingOver() && !index.isEmpty()) {
+            write();
+        }
+        return true;
+    }
+
+    // Checks the class can be instantiated by the Lookup.
+    private boolean check(TypeElement type) {
+        Set<Modifier> modifiers = type.getModifiers();
+        if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.ABSTRACT)) {
+            error(type, "@LookupService class must be public and not abstract");
+            return false;
+        }
+        if (type.getNestingKind().isNested() && !modifiers.contains(Modifier.STATIC)) {
+            error(type, "@LookupService nested class must be static");
+            return false;
+        }
+        for (ExecutableElement c : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (c.getParameters().isEmpty() && c.getModifiers().contains(Modifier.PUBLIC)) return true;
+        }
+        error(type, "@LookupService class must have a public no argument constructor");
+        return false;
+    }
+
+    // The class to record the annotated class under: the narrowest of the
+    // classes listed in the annotation, or the class itself if there is no
+    // single narrowest one, so the instance is only added once.
+    private List<TypeElement> services(TypeElement type) {
+        List<TypeElement> r = new ArrayList<TypeElement>();
+        for (AnnotationMirror mirror : type.getAnnotationMirrors()) {
+            if (!((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName()
+                    .contentEquals(LookupService.class.getName())) continue;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e
+                    : mirror.getElementValues().entrySet()) {
+                if (!e.getKey().getSimpleName().contentEquals("value")) continue;
+                for (Object v : (List<?>) e.getValue().getValue()) {
+                    TypeMirror m = (TypeMirror) ((AnnotationValue) v).getValue();
+                    r.add((TypeElement) ((DeclaredType) m).asElement());
+                }
+            }
+        }
+        if (r.isEmpty()) r.add(type);
+        // A service which another of the services is assignable to already
+        // sees the instance through that one, so is not recorded again.
+        List<TypeElement> narrowest = new ArrayList<TypeElement>();
+        for (TypeElement service : r) {
+            boolean wider = false;
+            for (TypeElement other : r) {
+                if (other != service && !other.equals(service) && isAssignable(other, service)) {
+                    wider = true;
+                    break;
+                }
+            }
+            if (!wider && !narrowest.contains(service)) narrowest.add(service);
+        }
+        // Unrelated services would each add the instance, so it is recorded
+        // under its own class, which every one of them sees.
+        if (narrowest.size() > 1) return Collections.singletonList(type);
+        return narrowest;
+    }
+
+    private boolean isAssignable(TypeElement from, TypeElement to) {
+        return processingEnv.getTypeUtils().isAssignable(
+                processingEnv.getTypeUtils().erasure(from.asType()),
+                processingEnv.getTypeUtils().erasure(to.asType()));
+    }
+
+    private String binaryName(TypeElement type) {
+        return processingEnv.getElementUtils().getBinaryName(type).toString();
+    }
+
+    private void write() {
+        try {
+            FileObject file = processingEnv.getFiler().createResource(
+                    StandardLocation.CLASS_OUTPUT, "", LookupService.INDEX);
+            Writer out = new OutputStreamWriter(file.openOutputStream(), StandardCharsets.UTF_8);
+            try {
+                for (Map.Entry<String, Set<String>> e : index.entrySet()) {
+                    out.write(e.getKey());
+                    for (String name : e.getValue()) {
+                        out.write(' ');
+                        out.write(name);
+                    }
+                    out.write('\n');
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Could not write " + LookupService.INDEX + ": " + e.getMessage());
+        }
+    }
+
+    private void error(Element e, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, e);
+    }
+}
@@ -0,0 +1,101 @@
+package simplelookup.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import simplelookup.Lookup;
+import simplelookup.LookupService;
+
+public class LookupIndexProcessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static JavaFileObject source(String name, String code) {
+        return new SimpleJavaFileObject(URI.create("string:///" + name.replace('.', '/') + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+
+    // Compiles the sources with the processor, returning any errors.
+    private List<Diagnostic<? extends JavaFileObject>> compile(File out, JavaFileObject... sources) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
+        String library = new File(LookupService.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        JavaCompiler.CompilationTask task = compiler.getTask(null, files, diagnostics,
+                Arrays.asList("-classpath", library, "-d", out.getPath()), null, Arrays.asList(sources));
+        task.setProcessors(Collections.singletonList(new LookupIndexProcessor()));
+        task.call();
+        files.close();
+        return diagnostics.getDiagnostics();
+    }
+
+    private static String index(File out) throws IOException {
+        return new String(Files.readAllBytes(new File(out, LookupService.INDEX).toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        File out = folder.newFolder();
+        List<Diagnostic<? extends JavaFileObject>> errors = compile(out,
+                source("test.Animal", "package test; public interface Animal {}"),
+                source("test.Badger", "package test; @simplelookup.LookupService(Animal.class) public class Badger implements Animal {}"),
+                source("test.Sett", "package test; public class Sett {"
+                        + " @simplelookup.LookupService({Animal.class, Object.class}) public static class Ferret implements Animal {} }"),
+                source("test.Otter", "package test; @simplelookup.LookupService({Animal.class, Runnable.class})"
+                        + " public class Otter implements Animal, Runnable { public void run() {} }"),
+                source("test.Stoat", "package test; @simplelookup.LookupService public class Stoat {}"));
+        Assert.assertEquals(Collections.emptyList(), errors);
+        // Ferret is seen through Animal, so is not recorded under Object, and
+        // Otter is recorded once under its own class.
+        Assert.assertEquals("test.Animal test.Badger test.Sett$Ferret\n"
+                + "test.Otter test.Otter\n"
+                + "test.Stoat test.Stoat\n", index(out));
+
+        // The index is loaded without instantiating anything.
+        URLClassLoader loader = new URLClassLoader(new URL[]{out.toURI().toURL()}, getClass().getClassLoader());
+        Lookup lookup = Lookup.fromIndex(loader);
+        Class animal = loader.loadClass("test.Animal");
+        Assert.assertEquals(3, lookup.getView(animal).size());
+        Assert.assertEquals(1, lookup.getView(Runnable.class).size());
+        // Each instance is counted once in the widest View.
+        Assert.assertEquals(4, lookup.getView(Object.class).size());
+        loader.close();
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        File out = folder.newFolder();
+        List<Diagnostic<? extends JavaFileObject>> errors = compile(out,
+                source("test.Badger", "package test; @simplelookup.LookupService(Runnable.class)"
+                        + " public class Badger { public Badger(int age) {} }"));
+        Assert.assertEquals(1, errors.size());
+        Assert.assertTrue(errors.get(0).getMessage(null).contains("no argument constructor"));
+    }
+}
@@ -6,6 +6,7 @@ import java.awt.event.MouseEvent;
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
 
 import javax.swing.Action;
@@ -95,6 +96,16 @@ public class FileBrowser extends javax.swing.JFrame {
                 lookup.getView(SelectedFile.class).replaceAllWith(new SelectedFile(node.getFile()));
             }
         });
+        // Directories first, then by name.
+        lookup.getView(FileNode.class).ordered(new Comparator<FileNode>() {
+            public int compare(FileNode a, FileNode b) {
+                boolean aDir = a.getFile().isDirectory();
+                if (aDir != b.getFile().isDirectory()) {
+                    return aDir ? -1 : 1;
+                }
+                return a.getName().compareToIgnoreCase(b.getName());
+            }
+        });
         lookup.register(FileNode.class, new LookupBasicListener<FileNode>(){
             			@Override
 			public void resultChanged(Collection<FileNode> result) {
@@ -18,10 +18,12 @@ import simplelookup.sampleui.FileBrowser;
  */
 public class BackAction extends AbstractAction {
     private View<CurrentPath> view;
+    // Registered weakly, so held here for as long as this action is in use.
+    private final LookupBasicListener<CurrentPath> adapter;
     public BackAction() {
         putValue(NAME, "Back");
         putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_BACK_SPACE, 0));
-        LookupBasicListener<CurrentPath> adapter = new LookupBasicListener<CurrentPath>(){
+        adapter = new LookupBasicListener<CurrentPath>(){
             @Override
 			public void resultChanged(Collection<CurrentPath> result) {
 				if (result.isEmpty()) {
@@ -36,7 +38,7 @@ public class BackAction extends AbstractAction {
                 }
 			}
         };
-        FileBrowser.lookup.register(CurrentPath.class, adapter);
+        FileBrowser.lookup.registerWeak(CurrentPath.class, adapter);
         view = FileBrowser.lookup.getView(CurrentPath.class);
         adapter.resultChanged(view.list());
     }